@@ -1,3 +1,15 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * 708. Elevator system - OO Design
  * 题目：为一栋大楼设计电梯系统
@@ -194,6 +206,24 @@ public class ElevatorSystem {
         }
     }
 
+    /**
+     * Hall call of a destination-dispatch panel: the passenger enters the target
+     * floor in the lobby instead of pressing UP or DOWN.
+     */
+    class DestinationRequest extends ExternalRequest {
+
+        private int destination;
+
+        public DestinationRequest(int l, int destination) {
+            super(l, destination > l ? Direction.UP : Direction.DOWN);
+            this.destination = destination;
+        }
+
+        public int getDestination() {
+            return destination;
+        }
+    }
+
     class InternalRequest extends Request{
 
         public InternalRequest(int l) {
@@ -202,29 +232,133 @@ public class ElevatorSystem {
         }
     }
 
+    /**
+     * Fixed-size set of floors packed into long words, 0-based.
+     * toString() prints like the List<Boolean> it replaces, e.g. [false, true].
+     */
+    class StopSet {
+        private long[] words;
+        private int size;
+
+        public StopSet(int n) {
+            words = new long[(n + 63) >>> 6];
+            size = n;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public boolean get(int i) {
+            return (words[i >>> 6] & (1L << i)) != 0;
+        }
+
+        public void set(int i) {
+            words[i >>> 6] |= 1L << i;
+        }
+
+        public void clear(int i) {
+            words[i >>> 6] &= ~(1L << i);
+        }
+
+        public boolean isEmpty() {
+            for (long word : words) {
+                if (word != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return lowest set index >= from, or -1
+         */
+        public int nextSetBit(int from) {
+            if (from >= size) {
+                return -1;
+            }
+            int w = from >>> 6;
+            long word = words[w] & (-1L << from);
+            while (word == 0) {
+                if (++w == words.length) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+
+        /**
+         * @return highest set index <= from, or -1
+         */
+        public int previousSetBit(int from) {
+            if (from < 0) {
+                return -1;
+            }
+            int w = from >>> 6;
+            long word = words[w] & (-1L >>> (63 - (from & 63)));
+            while (word == 0) {
+                if (w-- == 0) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+        }
+
+        /**
+         * @return number of set indexes in [from, to], inclusive
+         */
+        public int count(int from, int to) {
+            if (from > to) {
+                return 0;
+            }
+            int first = from >>> 6;
+            int last = to >>> 6;
+            long firstMask = -1L << from;
+            long lastMask = -1L >>> (63 - (to & 63));
+            if (first == last) {
+                return Long.bitCount(words[first] & firstMask & lastMask);
+            }
+            int count = Long.bitCount(words[first] & firstMask);
+            for (int w = first + 1; w < last; w++) {
+                count += Long.bitCount(words[w]);
+            }
+            return count + Long.bitCount(words[last] & lastMask);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder(size * 7 + 2);
+            sb.append('[');
+            for (int i = 0; i < size; i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                sb.append(get(i));
+            }
+            return sb.append(']').toString();
+        }
+    }
+
     public class Elevator {
 
         private List<ElevatorButton> buttons;
 
-        private List<Boolean> upStops;
-        private List<Boolean> downStops;
+        private StopSet upStops;
+        private StopSet downStops;
 
         private int currLevel;
         private Status status;
+        private CarMetrics metrics;
+        private ElevatorJournal journal;
 
         public Elevator(int n)
         {
             buttons = new ArrayList<ElevatorButton>();
-            upStops = new ArrayList<Boolean>();
-            downStops = new ArrayList<Boolean>();
+            upStops = new StopSet(n);
+            downStops = new StopSet(n);
             currLevel = 0;
             status = Status.IDLE;
-
-            for(int i = 0; i < n; i++)
-            {
-                upStops.add(false);
-                downStops.add(false);
-            }
         }
 
         public void insertButton(ElevatorButton eb)
@@ -235,13 +369,16 @@ public class ElevatorSystem {
         public void handleExternalRequest(ExternalRequest r)
         {
             // Write your code here
+            if (journal != null) {
+                journal.append(ElevatorJournal.EXTERNAL, r.getLevel(), r.getDirection());
+            }
             if (r.getDirection() == Direction.UP) {
-                upStops.set(r.getLevel() - 1, true);
+                upStops.set(r.getLevel() - 1);
                 if (noRequests(downStops)) {
                     status = Status.UP;
                 }
             } else {
-                downStops.set(r.getLevel() - 1, true);
+                downStops.set(r.getLevel() - 1);
                 if (noRequests(upStops)) {
                     status = Status.DOWN;
                 }
@@ -251,13 +388,16 @@ public class ElevatorSystem {
         public void handleInternalRequest(InternalRequest r)
         {
             // Write your code here
+            if (journal != null) {
+                journal.append(ElevatorJournal.INTERNAL, r.getLevel(), null);
+            }
             if (status == Status.UP) {
                 if (r.getLevel() >= currLevel + 1) {
-                    upStops.set(r.getLevel() - 1, true);
+                    upStops.set(r.getLevel() - 1);
                 }
             } else if (status == Status.DOWN) {
                 if (r.getLevel() <= currLevel + 1) {
-                    downStops.set(r.getLevel() - 1, true);
+                    downStops.set(r.getLevel() - 1);
                 }
             }
         }
@@ -265,24 +405,33 @@ public class ElevatorSystem {
         public void openGate() throws Exception
         {
             // Write your code here
+            if (journal != null) {
+                journal.append(ElevatorJournal.OPEN_GATE, 0, null);
+            }
             if (status == Status.UP) {
-
-                for (int i = 0; i < upStops.size(); i++) {
-                    int checkLevel = (currLevel + i) % upStops.size();
-                    if (upStops.get(checkLevel)) {
-                        currLevel = checkLevel;
-                        upStops.set(checkLevel, false);
-                        break;
+                // first stop at or above the current level, wrapping around to the bottom
+                int checkLevel = upStops.nextSetBit(currLevel);
+                if (checkLevel < 0) {
+                    checkLevel = upStops.nextSetBit(0);
+                }
+                if (checkLevel >= 0) {
+                    currLevel = checkLevel;
+                    upStops.clear(checkLevel);
+                    if (metrics != null) {
+                        metrics.stopServed();
                     }
                 }
-
             } else if (status == Status.DOWN) {
-                for (int i = 0; i < downStops.size(); i++) {
-                    int checkLevel = (currLevel + downStops.size() - i) % downStops.size();
-                    if (downStops.get(checkLevel)) {
-                        currLevel = checkLevel;
-                        downStops.set(checkLevel, false);
-                        break;
+                // first stop at or below the current level, wrapping around to the top
+                int checkLevel = downStops.previousSetBit(currLevel);
+                if (checkLevel < 0) {
+                    checkLevel = downStops.previousSetBit(downStops.size() - 1);
+                }
+                if (checkLevel >= 0) {
+                    currLevel = checkLevel;
+                    downStops.clear(checkLevel);
+                    if (metrics != null) {
+                        metrics.stopServed();
                     }
                 }
             }
@@ -291,6 +440,9 @@ public class ElevatorSystem {
         public void closeGate()
         {
             // Write your code here
+            if (journal != null) {
+                journal.append(ElevatorJournal.CLOSE_GATE, 0, null);
+            }
             if (status == Status.IDLE) {
                 if (noRequests(downStops)) {
                     status = Status.UP;
@@ -306,6 +458,9 @@ public class ElevatorSystem {
                         status = Status.IDLE;
                     } else {
                         status = Status.DOWN;
+                        if (metrics != null) {
+                            metrics.reversal();
+                        }
                     }
                 }
             } else {
@@ -314,21 +469,82 @@ public class ElevatorSystem {
                         status = Status.IDLE;
                     } else {
                         status = Status.UP;
+                        if (metrics != null) {
+                            metrics.reversal();
+                        }
                     }
                 }
             }
+            if (metrics != null) {
+                metrics.recordQueueDepth(pendingStops());
+            }
+        }
+
+        public int getFloors() {
+            return upStops.size();
+        }
+
+        public CarMetrics getMetrics() {
+            return metrics;
+        }
+
+        public void setMetrics(CarMetrics metrics) {
+            this.metrics = metrics;
+        }
+
+        public void setJournal(ElevatorJournal journal) {
+            this.journal = journal;
+        }
+
+        /**
+         * @return current level, 1-based like the request levels
+         */
+        public int getCurrentLevel() {
+            return currLevel + 1;
         }
 
-        private boolean noRequests(List<Boolean> stops)
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean hasStop(int level, Direction d) {
+            return (d == Direction.UP ? upStops : downStops).get(level - 1);
+        }
+
+        /**
+         * Counts the stops of the given direction in [from, to], 1-based and inclusive.
+         */
+        public int countStops(Direction d, int from, int to) {
+            StopSet stops = d == Direction.UP ? upStops : downStops;
+            return stops.count(Math.max(from, 1) - 1, Math.min(to, stops.size()) - 1);
+        }
+
+        /**
+         * @return highest pending stop of the given direction, 1-based, or 0 if there is none
+         */
+        public int highestStop(Direction d) {
+            StopSet stops = d == Direction.UP ? upStops : downStops;
+            return stops.previousSetBit(stops.size() - 1) + 1;
+        }
+
+        /**
+         * @return lowest pending stop of the given direction, 1-based, or 0 if there is none
+         */
+        public int lowestStop(Direction d) {
+            StopSet stops = d == Direction.UP ? upStops : downStops;
+            return stops.nextSetBit(0) + 1;
+        }
+
+        /**
+         * @return number of pending stops in both directions
+         */
+        public int pendingStops() {
+            return upStops.count(0, upStops.size() - 1) + downStops.count(0, downStops.size() - 1);
+        }
+
+        private boolean noRequests(StopSet stops)
         {
-            for(int i = 0; i < stops.size(); i++)
-            {
-                if(stops.get(i))
-                {
-                    return false;
-                }
-            }
-            return true;
+            return stops.isEmpty();
         }
 
         public String elevatorStatusDescription()
@@ -341,4 +557,1175 @@ public class ElevatorSystem {
             return description;
         }
     }
+
+    /**
+     * Thread-safe front door for one car. Any number of I/O threads may press
+     * hall and car buttons; requests go onto a lock-free queue and are applied
+     * to the Elevator, in arrival order, only by the control loop calling drain().
+     * Elevator itself stays single-threaded.
+     */
+    public class RequestIntake {
+        private Elevator elevator;
+        static final int MAX_BATCH = 256;
+
+        private ConcurrentLinkedQueue<Request> queue = new ConcurrentLinkedQueue<Request>();
+
+        public RequestIntake(Elevator elevator) {
+            this.elevator = elevator;
+        }
+
+        public void pressHallButton(int level, Direction d) {
+            queue.offer(new ExternalRequest(level, d));
+        }
+
+        public void pressCarButton(int level) {
+            queue.offer(new InternalRequest(level));
+        }
+
+        /**
+         * Applies up to MAX_BATCH queued requests. Must only be called from the
+         * control loop, which calls it again on its next tick for the rest.
+         *
+         * @return number of requests applied
+         */
+        public int drain() {
+            return drain(MAX_BATCH);
+        }
+
+        /**
+         * Applies up to max queued requests, so a flood of presses cannot keep
+         * the control loop from moving the car. Must only be called from the
+         * control loop.
+         *
+         * @return number of requests applied
+         */
+        public int drain(int max) {
+            int applied = 0;
+            Request r;
+            while (applied < max && (r = queue.poll()) != null) {
+                if (r instanceof ExternalRequest) {
+                    elevator.handleExternalRequest((ExternalRequest) r);
+                } else {
+                    elevator.handleInternalRequest((InternalRequest) r);
+                }
+                applied++;
+            }
+            return applied;
+        }
+
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+    }
+
+    /**
+     * Picks the car that should serve a hall call.
+     */
+    interface Dispatcher {
+        /**
+         * @return index into cars of the car that takes the request
+         */
+        int select(List<Elevator> cars, ExternalRequest r);
+    }
+
+    /**
+     * Nearest-car dispatching with the classic figure of suitability:
+     * cars heading towards the call in the call's direction are preferred,
+     * then cars heading towards it the other way or idle cars, then the rest.
+     */
+    class NearestCarDispatcher implements Dispatcher {
+
+        public int select(List<Elevator> cars, ExternalRequest r) {
+            int best = 0;
+            int bestScore = Integer.MIN_VALUE;
+            for (int i = 0; i < cars.size(); i++) {
+                int score = suitability(cars.get(i), r);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        private int suitability(Elevator car, ExternalRequest r) {
+            int n = car.getFloors() - 1;
+            int p = car.getCurrentLevel();
+            int l = r.getLevel();
+            int distance = Math.abs(p - l);
+            Status s = car.getStatus();
+            if (s == Status.IDLE) {
+                return n + 1 - distance;
+            }
+            boolean towards = s == Status.UP ? l >= p : l <= p;
+            if (!towards) {
+                return 1;
+            }
+            boolean sameDirection = (s == Status.UP) == (r.getDirection() == Direction.UP);
+            return sameDirection ? n + 2 - distance : n + 1 - distance;
+        }
+    }
+
+    /**
+     * Estimated-time-of-arrival dispatching: follows each car's current sweep
+     * to the call and charges floorTime per floor and stopTime per stop on the way.
+     */
+    class EtaDispatcher implements Dispatcher {
+        private int floorTime;
+        private int stopTime;
+
+        public EtaDispatcher(int floorTime, int stopTime) {
+            this.floorTime = floorTime;
+            this.stopTime = stopTime;
+        }
+
+        public int select(List<Elevator> cars, ExternalRequest r) {
+            int best = 0;
+            int bestEta = Integer.MAX_VALUE;
+            for (int i = 0; i < cars.size(); i++) {
+                int eta = estimate(cars.get(i), r.getLevel(), r.getDirection());
+                if (eta < bestEta) {
+                    bestEta = eta;
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        public int estimate(Elevator car, int l, Direction d) {
+            int p = car.getCurrentLevel();
+            int distance;
+            int stops;
+            if (car.getStatus() == Status.IDLE) {
+                distance = Math.abs(p - l);
+                stops = 0;
+            } else if (car.getStatus() == Status.UP) {
+                if (d == Direction.UP && l >= p) {
+                    distance = l - p;
+                    stops = car.countStops(Direction.UP, p, l - 1);
+                } else {
+                    int top = Math.max(p, car.highestStop(Direction.UP));
+                    if (d == Direction.DOWN) {
+                        top = Math.max(top, l);
+                        distance = (top - p) + (top - l);
+                        stops = car.countStops(Direction.UP, p, top)
+                                + car.countStops(Direction.DOWN, l + 1, top);
+                    } else {
+                        int low = car.lowestStop(Direction.DOWN) == 0 ? l : Math.min(l, car.lowestStop(Direction.DOWN));
+                        distance = (top - p) + (top - low) + (l - low);
+                        stops = car.countStops(Direction.UP, p, top)
+                                + car.countStops(Direction.DOWN, low, top)
+                                + car.countStops(Direction.UP, low, l - 1);
+                    }
+                }
+            } else {
+                if (d == Direction.DOWN && l <= p) {
+                    distance = p - l;
+                    stops = car.countStops(Direction.DOWN, l + 1, p);
+                } else {
+                    int bottom = car.lowestStop(Direction.DOWN) == 0 ? p : Math.min(p, car.lowestStop(Direction.DOWN));
+                    if (d == Direction.UP) {
+                        bottom = Math.min(bottom, l);
+                        distance = (p - bottom) + (l - bottom);
+                        stops = car.countStops(Direction.DOWN, bottom, p)
+                                + car.countStops(Direction.UP, bottom, l - 1);
+                    } else {
+                        int high = Math.max(l, car.highestStop(Direction.UP));
+                        distance = (p - bottom) + (high - bottom) + (high - l);
+                        stops = car.countStops(Direction.DOWN, bottom, p)
+                                + car.countStops(Direction.UP, bottom, high)
+                                + car.countStops(Direction.DOWN, l + 1, high);
+                    }
+                }
+            }
+            return distance * floorTime + stops * stopTime;
+        }
+    }
+
+    /**
+     * Destination dispatching: on top of the ETA, every stop a car would have to
+     * add for the passenger's origin or destination costs newStopPenalty, so
+     * passengers travelling between the same floors are grouped into the same car.
+     * The destination itself becomes a stop when the passenger boards, as a car
+     * call would. Plain up/down calls are dispatched by ETA only.
+     */
+    class DestinationDispatcher extends EtaDispatcher {
+        private int newStopPenalty;
+
+        public DestinationDispatcher(int floorTime, int stopTime, int newStopPenalty) {
+            super(floorTime, stopTime);
+            this.newStopPenalty = newStopPenalty;
+        }
+
+        public int select(List<Elevator> cars, ExternalRequest r) {
+            if (!(r instanceof DestinationRequest)) {
+                return super.select(cars, r);
+            }
+            int destination = ((DestinationRequest) r).getDestination();
+            int best = 0;
+            int bestCost = Integer.MAX_VALUE;
+            for (int i = 0; i < cars.size(); i++) {
+                Elevator car = cars.get(i);
+                int newStops = (car.hasStop(r.getLevel(), r.getDirection()) ? 0 : 1)
+                        + (car.hasStop(destination, r.getDirection()) ? 0 : 1);
+                int cost = estimate(car, r.getLevel(), r.getDirection()) + newStops * newStopPenalty;
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Zoned dispatching: the floors above the lobby are split into contiguous
+     * zones, one per car, and a hall call there goes to the car owning the zone.
+     * Every car returns to the lobby, so lobby calls are shared by all cars
+     * through the lobby dispatcher, nearest car unless given another.
+     */
+    class ZonedDispatcher implements Dispatcher {
+        private Dispatcher lobby;
+
+        public ZonedDispatcher() {
+            this(new NearestCarDispatcher());
+        }
+
+        public ZonedDispatcher(Dispatcher lobby) {
+            this.lobby = lobby;
+        }
+
+        public int select(List<Elevator> cars, ExternalRequest r) {
+            if (r.getLevel() == 1) {
+                return lobby.select(cars, r);
+            }
+            int floors = cars.get(0).getFloors();
+            return (r.getLevel() - 2) * cars.size() / (floors - 1);
+        }
+    }
+
+    /**
+     * A bank of cars serving the same floors. Hall calls are handed to exactly
+     * one car chosen by the dispatcher, car calls go straight to their car.
+     */
+    public class ElevatorBank {
+        private List<Elevator> cars;
+        private Dispatcher dispatcher;
+
+        public ElevatorBank(int cars, int n, Dispatcher dispatcher) {
+            this.cars = new ArrayList<Elevator>();
+            this.dispatcher = dispatcher;
+            for (int i = 0; i < cars; i++) {
+                this.cars.add(new Elevator(n));
+            }
+        }
+
+        public int size() {
+            return cars.size();
+        }
+
+        public Elevator getElevator(int i) {
+            return cars.get(i);
+        }
+
+        public void setDispatcher(Dispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+
+        /**
+         * Attaches the registry's per-car metrics to every car of the bank.
+         */
+        public void setMetrics(MetricsRegistry registry) {
+            for (int i = 0; i < cars.size(); i++) {
+                cars.get(i).setMetrics(registry.getCarMetrics(i));
+            }
+        }
+
+        public int selectElevator(ExternalRequest r) {
+            return dispatcher.select(cars, r);
+        }
+
+        /**
+         * @return index of the car the request was assigned to
+         */
+        public int handleExternalRequest(ExternalRequest r) {
+            int car = selectElevator(r);
+            cars.get(car).handleExternalRequest(r);
+            return car;
+        }
+
+        public void handleInternalRequest(int car, InternalRequest r) {
+            cars.get(car).handleInternalRequest(r);
+        }
+
+        public String bankStatusDescription() {
+            StringBuilder description = new StringBuilder();
+            for (int i = 0; i < cars.size(); i++) {
+                description.append("Car ").append(i).append(":\n");
+                description.append(cars.get(i).elevatorStatusDescription());
+            }
+            return description.toString();
+        }
+    }
+
+    enum TrafficPattern {
+        UP_PEAK, DOWN_PEAK, LUNCH
+    }
+
+    /**
+     * A passenger of a traffic study. Levels are 1-based, times are in milliseconds.
+     */
+    class Passenger {
+        private long arrivalTime;
+        private int origin;
+        private int destination;
+        private int car = -1;
+        private long boardTime = -1;
+        private long alightTime = -1;
+
+        public Passenger(long arrivalTime, int origin, int destination) {
+            this.arrivalTime = arrivalTime;
+            this.origin = origin;
+            this.destination = destination;
+        }
+
+        public long getArrivalTime() {
+            return arrivalTime;
+        }
+
+        public int getOrigin() {
+            return origin;
+        }
+
+        public int getDestination() {
+            return destination;
+        }
+
+        public Direction getDirection() {
+            return destination > origin ? Direction.UP : Direction.DOWN;
+        }
+
+        public int getCar() {
+            return car;
+        }
+
+        public long getBoardTime() {
+            return boardTime;
+        }
+
+        public long getAlightTime() {
+            return alightTime;
+        }
+    }
+
+    /**
+     * Poisson passenger arrivals for a typical office day profile.
+     * Floor 1 is the lobby.
+     */
+    class TrafficGenerator {
+        private int floors;
+        private TrafficPattern pattern;
+        private double arrivalsPerSecond;
+        private SplittableRandom random;
+
+        public TrafficGenerator(int floors, TrafficPattern pattern, double arrivalsPerSecond, SplittableRandom random) {
+            this.floors = floors;
+            this.pattern = pattern;
+            this.arrivalsPerSecond = arrivalsPerSecond;
+            this.random = random;
+        }
+
+        /**
+         * @return passengers arriving in [0, duration) ms, sorted by arrival time
+         */
+        public List<Passenger> generate(long duration) {
+            List<Passenger> passengers = new ArrayList<Passenger>();
+            double meanGap = 1000.0 / arrivalsPerSecond;
+            double time = -Math.log(1 - random.nextDouble()) * meanGap;
+            while (time < duration) {
+                passengers.add(next((long) time));
+                time += -Math.log(1 - random.nextDouble()) * meanGap;
+            }
+            return passengers;
+        }
+
+        private Passenger next(long time) {
+            double lobbyIn;
+            double lobbyOut;
+            if (pattern == TrafficPattern.UP_PEAK) {
+                lobbyIn = 0.85;
+                lobbyOut = 0.05;
+            } else if (pattern == TrafficPattern.DOWN_PEAK) {
+                lobbyIn = 0.05;
+                lobbyOut = 0.85;
+            } else {
+                lobbyIn = 0.45;
+                lobbyOut = 0.45;
+            }
+            double u = random.nextDouble();
+            if (u < lobbyIn) {
+                return new Passenger(time, 1, upperFloor(1));
+            }
+            if (u < lobbyIn + lobbyOut) {
+                return new Passenger(time, upperFloor(1), 1);
+            }
+            int origin = upperFloor(1);
+            return new Passenger(time, origin, upperFloor(origin));
+        }
+
+        /**
+         * @return a random floor in [2, floors] other than exclude
+         */
+        private int upperFloor(int exclude) {
+            if (floors == 2) {
+                return exclude == 2 ? 1 : 2;
+            }
+            while (true) {
+                int floor = 2 + random.nextInt(floors - 1);
+                if (floor != exclude) {
+                    return floor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fixed-width bucket histogram; values beyond the last bucket land in an overflow bucket.
+     */
+    class Histogram {
+        private long bucketWidth;
+        private long[] buckets;
+        private long count;
+        private long sum;
+        private long max;
+
+        public Histogram(long bucketWidth, int bucketCount) {
+            this.bucketWidth = bucketWidth;
+            this.buckets = new long[bucketCount + 1];
+        }
+
+        public void record(long value) {
+            int i = (int) Math.min(value / bucketWidth, buckets.length - 1);
+            buckets[i]++;
+            count++;
+            sum += value;
+            max = Math.max(max, value);
+        }
+
+        public void merge(Histogram other) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += other.buckets[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            max = Math.max(max, other.max);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param q quantile in [0, 1]
+         * @return upper bound of the bucket holding the quantile, or max for the overflow bucket
+         */
+        public long percentile(double q) {
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0) {
+                    return i == buckets.length - 1 ? max : Math.min((i + 1) * bucketWidth, max);
+                }
+            }
+            return 0;
+        }
+
+        public String toString() {
+            return "count=" + count + " mean=" + Math.round(getMean()) + " p50=" + percentile(0.5)
+                    + " p90=" + percentile(0.9) + " p99=" + percentile(0.99) + " max=" + max;
+        }
+    }
+
+    /**
+     * Per-car counters and histograms. Recording is done by the car's single
+     * control loop and never allocates: values go into preallocated atomic
+     * arrays with lazySet, so snapshot() can be called from any thread without
+     * pausing the loop. A snapshot is per-value consistent, not a global cut.
+     */
+    class CarMetrics {
+        private static final int STOPS_SERVED = 0;
+        private static final int REVERSALS = 1;
+        private static final int IDLE_TIME = 2;
+
+        private AtomicLongArray counters = new AtomicLongArray(3);
+        private AtomicHistogram hallWait = new AtomicHistogram(1000, 600);
+        private AtomicHistogram queueDepth = new AtomicHistogram(1, 256);
+
+        public void stopServed() {
+            counters.lazySet(STOPS_SERVED, counters.get(STOPS_SERVED) + 1);
+        }
+
+        public void reversal() {
+            counters.lazySet(REVERSALS, counters.get(REVERSALS) + 1);
+        }
+
+        public void addIdleTime(long time) {
+            counters.lazySet(IDLE_TIME, counters.get(IDLE_TIME) + time);
+        }
+
+        public void recordHallWait(long time) {
+            hallWait.record(time);
+        }
+
+        public void recordQueueDepth(int depth) {
+            queueDepth.record(depth);
+        }
+
+        public CarMetricsSnapshot snapshot() {
+            return new CarMetricsSnapshot(counters.get(STOPS_SERVED), counters.get(REVERSALS),
+                    counters.get(IDLE_TIME), hallWait.snapshot(), queueDepth.snapshot());
+        }
+    }
+
+    /**
+     * Single-writer histogram with the same bucket layout as Histogram.
+     * The array holds the buckets (overflow last), then sum and max.
+     */
+    class AtomicHistogram {
+        private long bucketWidth;
+        private int bucketCount;
+        private AtomicLongArray values;
+
+        public AtomicHistogram(long bucketWidth, int bucketCount) {
+            this.bucketWidth = bucketWidth;
+            this.bucketCount = bucketCount;
+            this.values = new AtomicLongArray(bucketCount + 3);
+        }
+
+        public void record(long value) {
+            int i = (int) Math.min(value / bucketWidth, bucketCount);
+            int sum = bucketCount + 1;
+            int max = bucketCount + 2;
+            values.lazySet(i, values.get(i) + 1);
+            values.lazySet(sum, values.get(sum) + value);
+            if (value > values.get(max)) {
+                values.lazySet(max, value);
+            }
+        }
+
+        public Histogram snapshot() {
+            Histogram h = new Histogram(bucketWidth, bucketCount);
+            for (int i = 0; i <= bucketCount; i++) {
+                h.buckets[i] = values.get(i);
+                h.count += h.buckets[i];
+            }
+            h.sum = values.get(bucketCount + 1);
+            h.max = values.get(bucketCount + 2);
+            return h;
+        }
+    }
+
+    class CarMetricsSnapshot {
+        private long stopsServed;
+        private long reversals;
+        private long idleTime;
+        private Histogram hallWait;
+        private Histogram queueDepth;
+
+        public CarMetricsSnapshot(long stopsServed, long reversals, long idleTime, Histogram hallWait, Histogram queueDepth) {
+            this.stopsServed = stopsServed;
+            this.reversals = reversals;
+            this.idleTime = idleTime;
+            this.hallWait = hallWait;
+            this.queueDepth = queueDepth;
+        }
+
+        public long getStopsServed() {
+            return stopsServed;
+        }
+
+        public long getReversals() {
+            return reversals;
+        }
+
+        public long getIdleTime() {
+            return idleTime;
+        }
+
+        public Histogram getHallWait() {
+            return hallWait;
+        }
+
+        public Histogram getQueueDepth() {
+            return queueDepth;
+        }
+
+        public String toString() {
+            return "stops served=" + stopsServed + " reversals=" + reversals + " idle=" + idleTime
+                    + "\nhall wait: " + hallWait + "\nqueue depth: " + queueDepth;
+        }
+    }
+
+    /**
+     * Holds the metrics of every car of a bank, see ElevatorBank.setMetrics().
+     */
+    public class MetricsRegistry {
+        private CarMetrics[] cars;
+
+        public MetricsRegistry(int cars) {
+            this.cars = new CarMetrics[cars];
+            for (int i = 0; i < cars; i++) {
+                this.cars[i] = new CarMetrics();
+            }
+        }
+
+        public CarMetrics getCarMetrics(int car) {
+            return cars[car];
+        }
+
+        public List<CarMetricsSnapshot> snapshot() {
+            List<CarMetricsSnapshot> snapshots = new ArrayList<CarMetricsSnapshot>();
+            for (CarMetrics car : cars) {
+                snapshots.add(car.snapshot());
+            }
+            return snapshots;
+        }
+    }
+
+    /**
+     * Binary min-heap of events packed into longs: time in the high 32 bits,
+     * then a 2-bit event type and a 30-bit car or passenger index.
+     */
+    class EventQueue {
+        private long[] heap = new long[64];
+        private int size;
+
+        public void push(long time, int type, int index) {
+            if (time > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Event time out of range: " + time);
+            }
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            long event = time << 32 | (long) type << 30 | index;
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= event) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = event;
+        }
+
+        public long pop() {
+            long top = heap[0];
+            long last = heap[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (last <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = last;
+            return top;
+        }
+
+        public boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    /**
+     * Discrete-event simulation of a bank of cars. Cars are driven through
+     * openGate()/closeGate() exactly as a controller would: a car departs by
+     * opening at its next stop, travels floorTime ms per floor, dwells doorTime ms
+     * while passengers alight and board, then closes. Passengers arriving at an
+     * open car going their way board straight away. Other hall calls for a car
+     * that is moving or dwelling are registered when its doors close, since
+     * handleExternalRequest() may change the direction of an idle list.
+     * Times are in milliseconds.
+     */
+    public class ElevatorSimulation {
+        private static final int ARRIVAL = 0;
+        private static final int CAR_ARRIVE = 1;
+        private static final int DOOR_CLOSE = 2;
+
+        private ElevatorBank bank;
+        private int floorTime;
+        private int doorTime;
+
+        private EventQueue events = new EventQueue();
+        private boolean[] busy;
+        private boolean[] dwelling;
+        private long[] idleSince;
+        // waiting[car][(level - 1) * 2 + direction] and riders[car][level - 1], created lazily
+        private ArrayDeque<Passenger>[][] waiting;
+        private ArrayDeque<Passenger>[][] riders;
+        private ArrayDeque<ExternalRequest>[] deferred;
+
+        private Histogram waitTimes = new Histogram(1000, 600);
+        private Histogram rideTimes = new Histogram(1000, 600);
+        private long eventCount;
+        private long stopCount;
+        private long now;
+        private boolean destinationDispatch;
+
+        @SuppressWarnings("unchecked")
+        public ElevatorSimulation(ElevatorBank bank, int floorTime, int doorTime) {
+            this.bank = bank;
+            this.floorTime = floorTime;
+            this.doorTime = doorTime;
+            int floors = bank.getElevator(0).getFloors();
+            busy = new boolean[bank.size()];
+            dwelling = new boolean[bank.size()];
+            idleSince = new long[bank.size()];
+            waiting = (ArrayDeque<Passenger>[][]) new ArrayDeque<?>[bank.size()][floors * 2];
+            riders = (ArrayDeque<Passenger>[][]) new ArrayDeque<?>[bank.size()][floors];
+            deferred = (ArrayDeque<ExternalRequest>[]) new ArrayDeque<?>[bank.size()];
+            for (int i = 0; i < bank.size(); i++) {
+                deferred[i] = new ArrayDeque<ExternalRequest>();
+            }
+        }
+
+        /**
+         * In destination-dispatch mode hall calls carry the passenger's destination.
+         */
+        public void setDestinationDispatch(boolean destinationDispatch) {
+            this.destinationDispatch = destinationDispatch;
+        }
+
+        /**
+         * Runs until every passenger has been delivered.
+         *
+         * @param passengers generated or recorded arrivals, sorted by arrival time
+         */
+        public void run(List<Passenger> passengers) {
+            int next = 0;
+            if (!passengers.isEmpty()) {
+                events.push(passengers.get(0).arrivalTime, ARRIVAL, 0);
+            }
+            while (!events.isEmpty()) {
+                long event = events.pop();
+                now = event >>> 32;
+                int type = (int) (event >>> 30) & 3;
+                int index = (int) event & 0x3FFFFFFF;
+                eventCount++;
+                if (type == ARRIVAL) {
+                    arrive(passengers.get(index));
+                    if (++next < passengers.size()) {
+                        events.push(passengers.get(next).arrivalTime, ARRIVAL, next);
+                    }
+                } else if (type == CAR_ARRIVE) {
+                    exchange(index);
+                } else {
+                    close(index);
+                }
+            }
+        }
+
+        private void arrive(Passenger p) {
+            ExternalRequest r = destinationDispatch
+                    ? new DestinationRequest(p.origin, p.destination)
+                    : new ExternalRequest(p.origin, p.getDirection());
+            int car = bank.selectElevator(r);
+            p.car = car;
+            Elevator e = bank.getElevator(car);
+            if (dwelling[car] && e.getCurrentLevel() == p.origin && serving(e) == p.getDirection()) {
+                board(car, p);
+                return;
+            }
+            queue(waiting, car, (p.origin - 1) * 2 + p.getDirection().ordinal()).add(p);
+            if (busy[car]) {
+                deferred[car].add(r);
+            } else {
+                e.handleExternalRequest(r);
+                depart(car);
+            }
+        }
+
+        private void depart(int car) {
+            Elevator e = bank.getElevator(car);
+            while (true) {
+                int pending = e.pendingStops();
+                if (pending == 0) {
+                    if (busy[car]) {
+                        busy[car] = false;
+                        idleSince[car] = now;
+                    }
+                    return;
+                }
+                int from = e.getCurrentLevel();
+                try {
+                    e.openGate();
+                } catch (Exception ex) {
+                    throw new IllegalStateException(ex);
+                }
+                if (e.pendingStops() < pending) {
+                    if (!busy[car] && e.getMetrics() != null) {
+                        e.getMetrics().addIdleTime(now - idleSince[car]);
+                    }
+                    busy[car] = true;
+                    stopCount++;
+                    events.push(now + (long) Math.abs(e.getCurrentLevel() - from) * floorTime, CAR_ARRIVE, car);
+                    return;
+                }
+                // nothing to serve in the current direction, let closeGate() turn the car around
+                e.closeGate();
+            }
+        }
+
+        private void exchange(int car) {
+            Elevator e = bank.getElevator(car);
+            int level = e.getCurrentLevel();
+            ArrayDeque<Passenger> out = riders[car][level - 1];
+            while (out != null && !out.isEmpty()) {
+                Passenger p = out.poll();
+                p.alightTime = now;
+                rideTimes.record(now - p.boardTime);
+            }
+            if (e.getStatus() != Status.IDLE) {
+                ArrayDeque<Passenger> in = waiting[car][(level - 1) * 2 + serving(e).ordinal()];
+                while (in != null && !in.isEmpty()) {
+                    board(car, in.poll());
+                }
+            }
+            dwelling[car] = true;
+            events.push(now + doorTime, DOOR_CLOSE, car);
+        }
+
+        private void board(int car, Passenger p) {
+            Elevator e = bank.getElevator(car);
+            p.boardTime = now;
+            waitTimes.record(now - p.arrivalTime);
+            if (e.getMetrics() != null) {
+                e.getMetrics().recordHallWait(now - p.arrivalTime);
+            }
+            queue(riders, car, p.destination - 1).add(p);
+            e.handleInternalRequest(new InternalRequest(p.destination));
+        }
+
+        private void close(int car) {
+            Elevator e = bank.getElevator(car);
+            dwelling[car] = false;
+            while (!deferred[car].isEmpty()) {
+                ExternalRequest r = deferred[car].poll();
+                ArrayDeque<Passenger> q = waiting[car][(r.getLevel() - 1) * 2 + r.getDirection().ordinal()];
+                // everyone behind this call may already have boarded
+                if (q != null && !q.isEmpty()) {
+                    e.handleExternalRequest(r);
+                }
+            }
+            e.closeGate();
+            depart(car);
+        }
+
+        private Direction serving(Elevator e) {
+            return e.getStatus() == Status.UP ? Direction.UP : Direction.DOWN;
+        }
+
+        private ArrayDeque<Passenger> queue(ArrayDeque<Passenger>[][] queues, int car, int slot) {
+            ArrayDeque<Passenger> q = queues[car][slot];
+            if (q == null) {
+                q = new ArrayDeque<Passenger>();
+                queues[car][slot] = q;
+            }
+            return q;
+        }
+
+        public Histogram getWaitTimes() {
+            return waitTimes;
+        }
+
+        public Histogram getRideTimes() {
+            return rideTimes;
+        }
+
+        public long getEventCount() {
+            return eventCount;
+        }
+
+        public long getStopCount() {
+            return stopCount;
+        }
+    }
+
+    /**
+     * Merged statistics of one or more simulated days.
+     */
+    class EvaluationResult {
+        private Histogram waitTimes = new Histogram(1000, 600);
+        private Histogram rideTimes = new Histogram(1000, 600);
+        private long stops;
+        private int days;
+
+        public void merge(EvaluationResult other) {
+            waitTimes.merge(other.waitTimes);
+            rideTimes.merge(other.rideTimes);
+            stops += other.stops;
+            days += other.days;
+        }
+
+        public Histogram getWaitTimes() {
+            return waitTimes;
+        }
+
+        public Histogram getRideTimes() {
+            return rideTimes;
+        }
+
+        public int getDays() {
+            return days;
+        }
+
+        public long getStops() {
+            return stops;
+        }
+
+        public double getStopsPerPassenger() {
+            return rideTimes.getCount() == 0 ? 0 : (double) stops / rideTimes.getCount();
+        }
+
+        public String toString() {
+            return "days=" + days + " stops/passenger=" + getStopsPerPassenger()
+                    + "\nwait: " + waitTimes + "\nride: " + rideTimes;
+        }
+    }
+
+    /**
+     * Monte Carlo comparison of dispatch policies: simulates many randomized days
+     * in parallel on a ForkJoinPool and merges their histograms. Each day gets its
+     * own SplittableRandom stream split off the seed, so results do not depend on
+     * the number of threads. Dispatchers are stateless and shared between days.
+     */
+    public class DispatchEvaluator {
+        private int cars;
+        private int floors;
+        private int floorTime;
+        private int doorTime;
+        private TrafficPattern pattern;
+        private double arrivalsPerSecond;
+        private long dayLength;
+        private boolean destinationDispatch;
+        private ForkJoinPool pool;
+
+        public DispatchEvaluator(int cars, int floors, int floorTime, int doorTime,
+                                 TrafficPattern pattern, double arrivalsPerSecond, long dayLength) {
+            this(cars, floors, floorTime, doorTime, pattern, arrivalsPerSecond, dayLength, ForkJoinPool.commonPool());
+        }
+
+        public DispatchEvaluator(int cars, int floors, int floorTime, int doorTime,
+                                 TrafficPattern pattern, double arrivalsPerSecond, long dayLength, ForkJoinPool pool) {
+            this.cars = cars;
+            this.floors = floors;
+            this.floorTime = floorTime;
+            this.doorTime = doorTime;
+            this.pattern = pattern;
+            this.arrivalsPerSecond = arrivalsPerSecond;
+            this.dayLength = dayLength;
+            this.pool = pool;
+        }
+
+        /**
+         * Runs the days in destination-dispatch mode. The same seed yields the same
+         * traffic in both modes, so the two can be compared directly.
+         */
+        public void setDestinationDispatch(boolean destinationDispatch) {
+            this.destinationDispatch = destinationDispatch;
+        }
+
+        public EvaluationResult evaluate(Dispatcher dispatcher, int days, long seed) {
+            return pool.invoke(new DaysTask(dispatcher, 0, days, new SplittableRandom(seed)));
+        }
+
+        private EvaluationResult simulateDay(Dispatcher dispatcher, SplittableRandom random) {
+            ElevatorBank bank = new ElevatorBank(cars, floors, dispatcher);
+            ElevatorSimulation simulation = new ElevatorSimulation(bank, floorTime, doorTime);
+            simulation.setDestinationDispatch(destinationDispatch);
+            simulation.run(new TrafficGenerator(floors, pattern, arrivalsPerSecond, random).generate(dayLength));
+            EvaluationResult result = new EvaluationResult();
+            result.waitTimes = simulation.getWaitTimes();
+            result.rideTimes = simulation.getRideTimes();
+            result.stops = simulation.getStopCount();
+            result.days = 1;
+            return result;
+        }
+
+        private class DaysTask extends RecursiveTask<EvaluationResult> {
+            private static final long serialVersionUID = 1L;
+
+            private Dispatcher dispatcher;
+            private int from;
+            private int to;
+            private SplittableRandom random;
+
+            DaysTask(Dispatcher dispatcher, int from, int to, SplittableRandom random) {
+                this.dispatcher = dispatcher;
+                this.from = from;
+                this.to = to;
+                this.random = random;
+            }
+
+            protected EvaluationResult compute() {
+                if (to - from == 1) {
+                    return simulateDay(dispatcher, random);
+                }
+                if (to == from) {
+                    return new EvaluationResult();
+                }
+                int mid = (from + to) >>> 1;
+                DaysTask left = new DaysTask(dispatcher, from, mid, random.split());
+                left.fork();
+                EvaluationResult result = new DaysTask(dispatcher, mid, to, random).compute();
+                result.merge(left.join());
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Append-only binary journal of one car's inputs, written through a
+     * memory-mapped file so an append is a few stores into the page cache.
+     * Layout: an 8-byte header (magic, floor count) followed by 8-byte records
+     * of type, direction, two padding bytes and level. The file is mapped in
+     * SEGMENT-sized windows and trimmed to the written length on close().
+     * Type codes are nonzero and each type byte is stored after the rest of its
+     * record, behind a store-store fence, so if the process dies without
+     * close() the zero-filled tail, or a half-written record, reads as the end
+     * of the journal. A segment is forced to disk when the journal moves past
+     * it, and the last one on close().
+     */
+    public class ElevatorJournal {
+        static final byte EXTERNAL = 1;
+        static final byte INTERNAL = 2;
+        static final byte OPEN_GATE = 3;
+        static final byte CLOSE_GATE = 4;
+
+        static final int MAGIC = 0x454C4A32;
+        static final int HEADER = 8;
+        static final int RECORD = 8;
+        private static final int SEGMENT = 1 << 20;
+
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+        private long segmentStart;
+        private long records;
+
+        public ElevatorJournal(Path file, int floors) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT);
+            buffer.putInt(MAGIC);
+            buffer.putInt(floors);
+        }
+
+        void append(byte type, int level, Direction d) {
+            if (!buffer.hasRemaining()) {
+                try {
+                    buffer.force();
+                    segmentStart += SEGMENT;
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, segmentStart, SEGMENT);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int pos = buffer.position();
+            buffer.put(pos + 1, d == null ? (byte) -1 : (byte) d.ordinal());
+            buffer.putInt(pos + 4, level);
+            VarHandle.storeStoreFence();
+            buffer.put(pos, type);
+            buffer.position(pos + RECORD);
+            records++;
+        }
+
+        public long getRecordCount() {
+            return records;
+        }
+
+        public void close() throws IOException {
+            buffer.force();
+            channel.force(true);
+            channel.truncate(HEADER + records * RECORD);
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * Rebuilds a car from an ElevatorJournal by replaying its records.
+     */
+    public class ElevatorJournalReplayer {
+        private MappedByteBuffer buffer;
+        private int floors;
+        private long records;
+
+        public ElevatorJournalReplayer(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (buffer.getInt(0) != ElevatorJournal.MAGIC) {
+                throw new IOException("Not an elevator journal: " + file);
+            }
+            floors = buffer.getInt(4);
+            long capacity = (buffer.capacity() - ElevatorJournal.HEADER) / ElevatorJournal.RECORD;
+            while (records < capacity && isValid((int) (ElevatorJournal.HEADER + records * ElevatorJournal.RECORD))) {
+                records++;
+            }
+        }
+
+        // a journal that was never closed ends at the first record that is not whole
+        private boolean isValid(int pos) {
+            byte type = buffer.get(pos);
+            if (type == ElevatorJournal.EXTERNAL) {
+                byte d = buffer.get(pos + 1);
+                return d >= 0 && d < Direction.values().length;
+            }
+            return type >= ElevatorJournal.INTERNAL && type <= ElevatorJournal.CLOSE_GATE;
+        }
+
+        public long getRecordCount() {
+            return records;
+        }
+
+        /**
+         * @return a new car in the state it had after the first count records
+         */
+        public Elevator replay(long count) throws Exception {
+            Elevator e = new Elevator(floors);
+            long end = Math.min(count, records);
+            for (long i = 0; i < end; i++) {
+                int pos = (int) (ElevatorJournal.HEADER + i * ElevatorJournal.RECORD);
+                byte type = buffer.get(pos);
+                int level = buffer.getInt(pos + 4);
+                if (type == ElevatorJournal.EXTERNAL) {
+                    e.handleExternalRequest(new ExternalRequest(level, Direction.values()[buffer.get(pos + 1)]));
+                } else if (type == ElevatorJournal.INTERNAL) {
+                    e.handleInternalRequest(new InternalRequest(level));
+                } else if (type == ElevatorJournal.OPEN_GATE) {
+                    e.openGate();
+                } else {
+                    e.closeGate();
+                }
+            }
+            return e;
+        }
+    }
 }
@@ -1,3 +1,17 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
 /**
  * 560. Friendship Service
  * <p>
@@ -18,12 +32,14 @@
  */
 public class FriendshipService {
 
-    private Map<Integer, Set<Integer>> mFollower, mFollowing;
+    private IntAdjacency mFollower, mFollowing;
+    private FollowerRanking mRanking;
 
     public FriendshipService() {
         // do intialization if necessary
-        mFollower = new HashMap<>();
-        mFollowing = new HashMap<>();
+        mFollower = new IntAdjacency();
+        mFollowing = new IntAdjacency();
+        mRanking = new FollowerRanking();
     }
 
     /*
@@ -32,10 +48,7 @@ public class FriendshipService {
      */
     public List<Integer> getFollowers(int user_id) {
         // write your code here
-        if (!mFollower.containsKey(user_id)) {
-            return new ArrayList<>();
-        }
-        return new ArrayList<>(mFollower.get(user_id));
+        return mFollower.toList(user_id);
     }
 
     /*
@@ -44,10 +57,70 @@ public class FriendshipService {
      */
     public List<Integer> getFollowings(int user_id) {
         // write your code here
-        if (!mFollowing.containsKey(user_id)) {
-            return new ArrayList<>();
-        }
-        return new ArrayList<>(mFollowing.get(user_id));
+        return mFollowing.toList(user_id);
+    }
+
+    /*
+     * @param user_id: An integer
+     * @param after_id: last id of the previous page, Integer.MIN_VALUE for the first page
+     * @param limit: maximum page size
+     * @return: up to limit followers with id > after_id, sorted by user_id
+     */
+    public List<Integer> getFollowers(int user_id, int after_id, int limit) {
+        return mFollower.page(user_id, after_id, limit);
+    }
+
+    /*
+     * @param user_id: An integer
+     * @param after_id: last id of the previous page, Integer.MIN_VALUE for the first page
+     * @param limit: maximum page size
+     * @return: up to limit followings with id > after_id, sorted by user_id
+     */
+    public List<Integer> getFollowings(int user_id, int after_id, int limit) {
+        return mFollowing.page(user_id, after_id, limit);
+    }
+
+    /*
+     * @param user_id: An integer
+     * @return: users that user_id follows and that follow user_id back, sorted by user_id
+     */
+    public List<Integer> getMutualFollows(int user_id) {
+        return IntAdjacency.intersect(mFollowing.neighbors(user_id), mFollowing.degree(user_id),
+                mFollower.neighbors(user_id), mFollower.degree(user_id));
+    }
+
+    /*
+     * @param a_user_id: An integer
+     * @param b_user_id: An integer
+     * @return: users following both a_user_id and b_user_id, sorted by user_id
+     */
+    public List<Integer> getCommonFollowers(int a_user_id, int b_user_id) {
+        return IntAdjacency.intersect(mFollower.neighbors(a_user_id), mFollower.degree(a_user_id),
+                mFollower.neighbors(b_user_id), mFollower.degree(b_user_id));
+    }
+
+    /*
+     * @param user_id: An integer
+     * @return: number of followers, without copying them
+     */
+    public int followerCount(int user_id) {
+        return mFollower.degree(user_id);
+    }
+
+    /*
+     * @param user_id: An integer
+     * @return: number of followings, without copying them
+     */
+    public int followingCount(int user_id) {
+        return mFollowing.degree(user_id);
+    }
+
+    /*
+     * @param k: An integer
+     * @return: up to k most-followed users, most followers first; users with equal counts come in no particular order
+     */
+    public List<Integer> getMostFollowed(int k) {
+        return mRanking.top(k);
     }
 
     /*
@@ -57,14 +130,10 @@ public class FriendshipService {
      */
     public void follow(int to_user_id, int from_user_id) {
         // write your code here
-        if (!mFollower.containsKey(to_user_id)) {
-            mFollower.put(to_user_id, new TreeSet<Integer>());
-        }
-        mFollower.get(to_user_id).add(from_user_id);
-        if (!mFollowing.containsKey(from_user_id)) {
-            mFollowing.put(from_user_id, new TreeSet<Integer>());
+        if (mFollower.add(to_user_id, from_user_id)) {
+            mRanking.adjust(to_user_id, 1);
         }
-        mFollowing.get(from_user_id).add(to_user_id);
+        mFollowing.add(from_user_id, to_user_id);
     }
 
     /*
@@ -74,11 +143,1236 @@ public class FriendshipService {
      */
     public void unfollow(int to_user_id, int from_user_id) {
         // write your code here
-        if (mFollower.containsKey(to_user_id)) {
-            mFollower.get(to_user_id).remove(from_user_id);
+        if (mFollower.remove(to_user_id, from_user_id)) {
+            mRanking.adjust(to_user_id, -1);
+        }
+        mFollowing.remove(from_user_id, to_user_id);
+    }
+
+    /*
+     * Bulk version of follow for imports: edge i is from_user_ids[i] -> to_user_ids[i].
+     * The edges are sorted and grouped by user so every touched list is merged
+     * once per batch instead of once per edge. Needs 8 bytes per edge of scratch;
+     * feed very large graphs in batches of a few hundred million edges.
+     * @param to_user_ids: followed users
+     * @param from_user_ids: following users
+     * @return: nothing
+     */
+    public void followAll(int[] to_user_ids, int[] from_user_ids) {
+        mFollower.addAll(IntAdjacency.sortedEdges(to_user_ids, from_user_ids), mRanking);
+        mFollowing.addAll(IntAdjacency.sortedEdges(from_user_ids, to_user_ids), null);
+    }
+
+    /*
+     * Bulk version of unfollow, see followAll.
+     * @param to_user_ids: followed users
+     * @param from_user_ids: following users
+     * @return: nothing
+     */
+    public void unfollowAll(int[] to_user_ids, int[] from_user_ids) {
+        mFollower.removeAll(IntAdjacency.sortedEdges(to_user_ids, from_user_ids), mRanking);
+        mFollowing.removeAll(IntAdjacency.sortedEdges(from_user_ids, to_user_ids), null);
+    }
+
+    IntAdjacency followers() {
+        return mFollower;
+    }
+
+    IntAdjacency followings() {
+        return mFollowing;
+    }
+}
+
+/**
+ * "People you may know": ranks the users two follow-hops away from a user by
+ * how many of the user's followings follow them, skipping users already
+ * followed. Both hops read at most maxFanout neighbors, taken at an even
+ * stride through the sorted list, so the cost per user is bounded by
+ * maxFanout^2 whatever the degrees. Results are cached per user in an LRU
+ * and reused until the followings of the user, or of one of the sampled
+ * friends, change; writes elsewhere in the graph leave them valid.
+ * recommendAll() spreads a batch of users over a ForkJoinPool; the graph must
+ * not be written meanwhile.
+ */
+class FriendRecommender {
+
+    private FriendshipService service;
+    private int maxFanout;
+    private Map<Integer, CachedRecommendation> cache;
+
+    public FriendRecommender(FriendshipService service, int maxFanout, final int cacheSize) {
+        this.service = service;
+        this.maxFanout = maxFanout;
+        this.cache = new LinkedHashMap<Integer, CachedRecommendation>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedRecommendation> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /*
+     * @param user_id: An integer
+     * @param limit: maximum number of suggestions
+     * @return: suggested user ids, most mutual connections first, ties by user_id
+     */
+    public List<Integer> recommend(int user_id, int limit) {
+        long stamp = service.followings().changes();
+        CachedRecommendation cached;
+        synchronized (cache) {
+            cached = cache.get(user_id);
+        }
+        if (cached != null && cached.limit >= limit && isFresh(user_id, cached.stamp)) {
+            return new ArrayList<>(cached.users.subList(0, Math.min(limit, cached.users.size())));
+        }
+        List<Integer> users = compute(user_id, limit);
+        synchronized (cache) {
+            cache.put(user_id, new CachedRecommendation(stamp, limit, users));
+        }
+        return new ArrayList<>(users);
+    }
+
+    // true if none of the lists compute() read has changed since stamp
+    private boolean isFresh(int user_id, long stamp) {
+        IntAdjacency following = service.followings();
+        if (following.changedAt(user_id) > stamp) {
+            return false;
+        }
+        int[] direct = following.neighbors(user_id);
+        int directCount = following.degree(user_id);
+        int directStride = stride(directCount);
+        for (int i = 0; i < directCount; i += directStride) {
+            if (following.changedAt(direct[i]) > stamp) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * @param user_ids: users to compute suggestions for
+     * @param limit: maximum number of suggestions per user
+     * @return: suggestions for user_ids[i] at index i
+     */
+    public List<List<Integer>> recommendAll(int[] user_ids, int limit) {
+        List<List<Integer>> results = new ArrayList<>(Collections.nCopies(user_ids.length, (List<Integer>) null));
+        ForkJoinPool.commonPool().invoke(new RecommendTask(user_ids, 0, user_ids.length, limit, results));
+        return results;
+    }
+
+    private List<Integer> compute(int user_id, int limit) {
+        IntAdjacency following = service.followings();
+        int[] direct = following.neighbors(user_id);
+        int directCount = following.degree(user_id);
+        IntCounter counts = new IntCounter(Math.min(maxFanout * maxFanout, 1 << 16));
+        int directStride = stride(directCount);
+        for (int i = 0; i < directCount; i += directStride) {
+            int friend = direct[i];
+            int[] second = following.neighbors(friend);
+            int secondCount = following.degree(friend);
+            int secondStride = stride(secondCount);
+            for (int j = 0; j < secondCount; j += secondStride) {
+                int candidate = second[j];
+                if (candidate != user_id && Arrays.binarySearch(direct, 0, directCount, candidate) < 0) {
+                    counts.increment(candidate);
+                }
+            }
+        }
+        return counts.top(limit);
+    }
+
+    private int stride(int degree) {
+        return degree <= maxFanout ? 1 : (degree + maxFanout - 1) / maxFanout;
+    }
+
+    private static class CachedRecommendation {
+        long stamp;
+        int limit;
+        List<Integer> users;
+
+        CachedRecommendation(long stamp, int limit, List<Integer> users) {
+            this.stamp = stamp;
+            this.limit = limit;
+            this.users = users;
+        }
+    }
+
+    private class RecommendTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int LEAF = 16;
+
+        private int[] user_ids;
+        private int from, to, limit;
+        private List<List<Integer>> results;
+
+        RecommendTask(int[] user_ids, int from, int to, int limit, List<List<Integer>> results) {
+            this.user_ids = user_ids;
+            this.from = from;
+            this.to = to;
+            this.limit = limit;
+            this.results = results;
+        }
+
+        protected void compute() {
+            if (to - from <= LEAF) {
+                for (int i = from; i < to; i++) {
+                    results.set(i, recommend(user_ids[i], limit));
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RecommendTask(user_ids, from, mid, limit, results),
+                    new RecommendTask(user_ids, mid, to, limit, results));
+        }
+    }
+}
+
+/**
+ * Open-addressing int -> count map used to tally candidates.
+ */
+class IntCounter {
+    private int[] keys;
+    private int[] counts;
+    private int size;
+    private int mask;
+
+    public IntCounter(int expected) {
+        int capacity = 16;
+        while (capacity < expected * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        counts = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    public void increment(int key) {
+        int slot = IntAdjacency.hash(key) & mask;
+        while (counts[slot] != 0) {
+            if (keys[slot] == key) {
+                counts[slot]++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        counts[slot] = 1;
+        if (++size > (mask + 1) * 3 / 4) {
+            grow();
+        }
+    }
+
+    /**
+     * @return up to limit keys, highest count first, ties by key
+     */
+    public List<Integer> top(int limit) {
+        long[] ranked = new long[size];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (counts[i] != 0) {
+                ranked[n++] = (long) -counts[i] << 32 | ((keys[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+            }
+        }
+        Arrays.sort(ranked);
+        List<Integer> result = new ArrayList<>(Math.min(limit, n));
+        for (int i = 0; i < n && i < limit; i++) {
+            result.add((int) ranked[i] ^ Integer.MIN_VALUE);
+        }
+        return result;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        keys = new int[oldKeys.length * 2];
+        counts = new int[oldKeys.length * 2];
+        mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldCounts[i] != 0) {
+                int slot = IntAdjacency.hash(oldKeys[i]) & mask;
+                while (counts[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
+
+/**
+ * Thread-safe FriendshipService. Users are spread over lock stripes by id; a
+ * stripe owns the follower and following lists of its users behind a
+ * read-write lock. follow/unfollow take the stripes of both users, lowest
+ * index first, and update both directions before releasing either, so
+ * mFollower and mFollowing never disagree once a write returns and writes
+ * to unrelated users proceed in parallel.
+ */
+class ConcurrentFriendshipService {
+
+    private ReentrantReadWriteLock[] locks;
+    private IntAdjacency[] mFollower, mFollowing;
+    private int mask;
+    private int shift;
+
+    public ConcurrentFriendshipService() {
+        this(64);
+    }
+
+    /*
+     * @param stripes: number of lock stripes, rounded up to a power of two
+     */
+    public ConcurrentFriendshipService(int stripes) {
+        int n = 1;
+        while (n < stripes) {
+            n <<= 1;
+        }
+        locks = new ReentrantReadWriteLock[n];
+        mFollower = new IntAdjacency[n];
+        mFollowing = new IntAdjacency[n];
+        for (int i = 0; i < n; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+            mFollower[i] = new IntAdjacency();
+            mFollowing[i] = new IntAdjacency();
+        }
+        mask = n - 1;
+        shift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    public List<Integer> getFollowers(int user_id) {
+        return getFollowers(user_id, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public List<Integer> getFollowings(int user_id) {
+        return getFollowings(user_id, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public List<Integer> getFollowers(int user_id, int after_id, int limit) {
+        int stripe = stripe(user_id);
+        locks[stripe].readLock().lock();
+        try {
+            return mFollower[stripe].page(user_id, after_id, limit);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public List<Integer> getFollowings(int user_id, int after_id, int limit) {
+        int stripe = stripe(user_id);
+        locks[stripe].readLock().lock();
+        try {
+            return mFollowing[stripe].page(user_id, after_id, limit);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public int followerCount(int user_id) {
+        int stripe = stripe(user_id);
+        locks[stripe].readLock().lock();
+        try {
+            return mFollower[stripe].degree(user_id);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public int followingCount(int user_id) {
+        int stripe = stripe(user_id);
+        locks[stripe].readLock().lock();
+        try {
+            return mFollowing[stripe].degree(user_id);
+        } finally {
+            locks[stripe].readLock().unlock();
+        }
+    }
+
+    public void follow(int to_user_id, int from_user_id) {
+        int to = stripe(to_user_id);
+        int from = stripe(from_user_id);
+        lock(to, from);
+        try {
+            mFollower[to].add(to_user_id, from_user_id);
+            mFollowing[from].add(from_user_id, to_user_id);
+        } finally {
+            unlock(to, from);
+        }
+    }
+
+    public void unfollow(int to_user_id, int from_user_id) {
+        int to = stripe(to_user_id);
+        int from = stripe(from_user_id);
+        lock(to, from);
+        try {
+            mFollower[to].remove(to_user_id, from_user_id);
+            mFollowing[from].remove(from_user_id, to_user_id);
+        } finally {
+            unlock(to, from);
+        }
+    }
+
+    // the top bits, which a stripe's own table only reaches past 2^26 slots
+    private int stripe(int user_id) {
+        return (IntAdjacency.hash(user_id) >>> shift) & mask;
+    }
+
+    private void lock(int a, int b) {
+        locks[Math.min(a, b)].writeLock().lock();
+        if (a != b) {
+            locks[Math.max(a, b)].writeLock().lock();
+        }
+    }
+
+    private void unlock(int a, int b) {
+        if (a != b) {
+            locks[Math.max(a, b)].writeLock().unlock();
+        }
+        locks[Math.min(a, b)].writeLock().unlock();
+    }
+}
+
+/**
+ * Users ordered by follower count, kept exact under +1/-1 updates in O(1).
+ * order[] holds the users by descending count, so the users with exactly c
+ * followers form one run of order[]. Runs are tracked only for counts some
+ * user has, by start and length, so memory stays O(users) however large the
+ * counts get. Moving a user up or down one count is a swap with the first or
+ * last user of its run plus two run updates, and the top k are simply
+ * order[0 .. k).
+ */
+class FollowerRanking {
+    private int[] order = new int[16];
+    private int[] counts = new int[16];
+    private int size;
+
+    // follower count -> its run in order packed as start << 32 | length,
+    // open addressing, 0 marks a free slot since a tracked run is never empty
+    private int[] runCounts = new int[32];
+    private long[] runs = new long[32];
+    private int runMask = 31;
+    private int runSize;
+
+    // user -> position in order, open addressing, 0 marks a free slot
+    private int[] users = new int[32];
+    private int[] positions = new int[32];
+    private int mask = 31;
+
+    /**
+     * Applies a follower count change of delta, one step at a time.
+     */
+    public void adjust(int user, int delta) {
+        int pos = positionOf(user);
+        for (; delta > 0; delta--) {
+            int c = counts[pos];
+            int first = start(runs[runSlot(c)]);
+            swap(pos, first);
+            shrink(c, first + 1);
+            grow(c + 1, first);
+            counts[first] = c + 1;
+            pos = first;
+        }
+        for (; delta < 0; delta++) {
+            int c = counts[pos];
+            long run = runs[runSlot(c)];
+            int last = start(run) + length(run) - 1;
+            swap(pos, last);
+            shrink(c, start(run));
+            grow(c - 1, last);
+            counts[last] = c - 1;
+            pos = last;
+        }
+    }
+
+    /**
+     * @return up to k users with at least one follower, most followers first
+     */
+    public List<Integer> top(int k) {
+        long zero = runs[runSlot(0)];
+        int n = Math.min(k, zero == 0 ? size : start(zero));
+        List<Integer> result = new ArrayList<>(Math.max(n, 0));
+        for (int i = 0; i < n; i++) {
+            result.add(order[i]);
+        }
+        return result;
+    }
+
+    // run c loses one user at an end and now starts at start
+    private void shrink(int c, int start) {
+        int slot = runSlot(c);
+        int length = length(runs[slot]) - 1;
+        if (length == 0) {
+            removeRun(slot);
+        } else {
+            runs[slot] = run(start, length);
+        }
+    }
+
+    // run c gains the user at pos, which borders it or starts it
+    private void grow(int c, int pos) {
+        int slot = runSlot(c);
+        long run = runs[slot];
+        if (run != 0) {
+            runs[slot] = run(Math.min(start(run), pos), length(run) + 1);
+            return;
         }
-        if (mFollowing.containsKey(from_user_id)) {
-            mFollowing.get(from_user_id).remove(to_user_id);
+        runCounts[slot] = c;
+        runs[slot] = run(pos, 1);
+        runSize++;
+        if (runSize > (runMask + 1) / 2) {
+            rehashRuns();
+        }
+    }
+
+    private static long run(int start, int length) {
+        return (long) start << 32 | length;
+    }
+
+    private static int start(long run) {
+        return (int) (run >>> 32);
+    }
+
+    private static int length(long run) {
+        return (int) run;
+    }
+
+    private int runSlot(int c) {
+        int slot = IntAdjacency.hash(c) & runMask;
+        while (runs[slot] != 0 && runCounts[slot] != c) {
+            slot = (slot + 1) & runMask;
+        }
+        return slot;
+    }
+
+    // frees slot and shifts later entries of its probe chain back into the gap
+    private void removeRun(int slot) {
+        runs[slot] = 0;
+        runSize--;
+        for (int next = (slot + 1) & runMask; runs[next] != 0; next = (next + 1) & runMask) {
+            int home = IntAdjacency.hash(runCounts[next]) & runMask;
+            if (((next - home) & runMask) >= ((next - slot) & runMask)) {
+                runCounts[slot] = runCounts[next];
+                runs[slot] = runs[next];
+                runs[next] = 0;
+                slot = next;
+            }
+        }
+    }
+
+    private void rehashRuns() {
+        int[] oldCounts = runCounts;
+        long[] oldRuns = runs;
+        runCounts = new int[oldCounts.length * 2];
+        runs = new long[oldRuns.length * 2];
+        runMask = runs.length - 1;
+        for (int i = 0; i < oldRuns.length; i++) {
+            if (oldRuns[i] != 0) {
+                int slot = runSlot(oldCounts[i]);
+                runCounts[slot] = oldCounts[i];
+                runs[slot] = oldRuns[i];
+            }
+        }
+    }
+
+    private void swap(int a, int b) {
+        if (a == b) {
+            return;
+        }
+        int userA = order[a];
+        int countA = counts[a];
+        order[a] = order[b];
+        counts[a] = counts[b];
+        order[b] = userA;
+        counts[b] = countA;
+        positions[slot(order[a])] = a + 1;
+        positions[slot(order[b])] = b + 1;
+    }
+
+    private int positionOf(int user) {
+        int slot = slot(user);
+        if (positions[slot] != 0) {
+            return positions[slot] - 1;
+        }
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+        }
+        order[size] = user;
+        counts[size] = 0;
+        grow(0, size);
+        users[slot] = user;
+        positions[slot] = size + 1;
+        size++;
+        if (size > (mask + 1) / 2) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    private int slot(int user) {
+        int slot = IntAdjacency.hash(user) & mask;
+        while (positions[slot] != 0 && users[slot] != user) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        users = new int[users.length * 2];
+        positions = new int[positions.length * 2];
+        mask = users.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = slot(order[i]);
+            users[slot] = order[i];
+            positions[slot] = i + 1;
+        }
+    }
+}
+
+/**
+ * Adjacency lists keyed by user id without boxing: an open-addressing int map
+ * whose slots point at sorted, duplicate-free int arrays. An edge costs about
+ * 4 bytes plus growth slack, against 40+ for a TreeSet<Integer> entry.
+ * A slot is in use when its list is non-null; keys are never removed.
+ * Every list change is numbered, and each key remembers the number of its
+ * latest one, so readers can tell which lists changed since they looked.
+ */
+class IntAdjacency {
+    private static final int[] EMPTY = new int[0];
+    private static final int GALLOP_RATIO = 32;
+
+    private int[] keys;
+    private int[][] lists;
+    private int[] sizes;
+    private long[] stamps;
+    private int count;
+    private int mask;
+    private volatile long changes;
+
+    public IntAdjacency() {
+        keys = new int[16];
+        lists = new int[16][];
+        sizes = new int[16];
+        stamps = new long[16];
+        mask = 15;
+    }
+
+    /**
+     * @return true if the edge was not there yet
+     */
+    public boolean add(int key, int value) {
+        int slot = slotFor(key);
+        int[] list = lists[slot];
+        int size = sizes[slot];
+        int i = Arrays.binarySearch(list, 0, size, value);
+        if (i >= 0) {
+            return false;
+        }
+        i = -i - 1;
+        if (size == list.length) {
+            list = Arrays.copyOf(list, Math.max(4, size + (size >> 1)));
+            lists[slot] = list;
+        }
+        System.arraycopy(list, i, list, i + 1, size - i);
+        list[i] = value;
+        sizes[slot] = size + 1;
+        touch(slot);
+        return true;
+    }
+
+    /**
+     * @return true if the edge was there
+     */
+    public boolean remove(int key, int value) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        int[] list = lists[slot];
+        int size = sizes[slot];
+        int i = Arrays.binarySearch(list, 0, size, value);
+        if (i < 0) {
+            return false;
+        }
+        System.arraycopy(list, i + 1, list, i, size - i - 1);
+        sizes[slot] = size - 1;
+        touch(slot);
+        return true;
+    }
+
+    /**
+     * Packs edge i as (keys[i], values[i]) into one long per edge and sorts them,
+     * which orders the edges by key, then value, both as signed ints.
+     */
+    static long[] sortedEdges(int[] keys, int[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("keys and values differ in length");
+        }
+        long[] edges = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            edges[i] = (long) keys[i] << 32 | ((values[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+        }
+        Arrays.parallelSort(edges);
+        return edges;
+    }
+
+    /**
+     * Adds edges produced by sortedEdges, merging each key's list once.
+     *
+     * @param ranking if not null, told about every key whose degree changed
+     * @return number of edges that were not there yet
+     */
+    public long addAll(long[] edges, FollowerRanking ranking) {
+        long added = 0;
+        int[] values = new int[16];
+        int i = 0;
+        while (i < edges.length) {
+            int key = (int) (edges[i] >> 32);
+            int n = 0;
+            for (; i < edges.length && (int) (edges[i] >> 32) == key; i++) {
+                int value = (int) edges[i] ^ Integer.MIN_VALUE;
+                if (n == 0 || values[n - 1] != value) {
+                    if (n == values.length) {
+                        values = Arrays.copyOf(values, n * 2);
+                    }
+                    values[n++] = value;
+                }
+            }
+            int merged = merge(slotFor(key), values, n);
+            if (ranking != null && merged > 0) {
+                ranking.adjust(key, merged);
+            }
+            added += merged;
+        }
+        return added;
+    }
+
+    /**
+     * Removes edges produced by sortedEdges, compacting each key's list once.
+     *
+     * @param ranking if not null, told about every key whose degree changed
+     * @return number of edges that were there
+     */
+    public long removeAll(long[] edges, FollowerRanking ranking) {
+        long removed = 0;
+        int i = 0;
+        while (i < edges.length) {
+            int key = (int) (edges[i] >> 32);
+            int slot = find(key);
+            int start = i;
+            while (i < edges.length && (int) (edges[i] >> 32) == key) {
+                i++;
+            }
+            if (slot < 0) {
+                continue;
+            }
+            int[] list = lists[slot];
+            int size = sizes[slot];
+            int kept = 0;
+            int j = start;
+            for (int k = 0; k < size; k++) {
+                int value = list[k];
+                while (j < i && ((int) edges[j] ^ Integer.MIN_VALUE) < value) {
+                    j++;
+                }
+                if (j < i && ((int) edges[j] ^ Integer.MIN_VALUE) == value) {
+                    removed++;
+                } else {
+                    list[kept++] = value;
+                }
+            }
+            if (kept < size) {
+                touch(slot);
+                if (ranking != null) {
+                    ranking.adjust(key, kept - size);
+                }
+            }
+            sizes[slot] = kept;
+        }
+        return removed;
+    }
+
+    private int merge(int slot, int[] values, int n) {
+        int[] list = lists[slot];
+        int size = sizes[slot];
+        int[] merged = new int[size + n];
+        int a = 0;
+        int b = 0;
+        int m = 0;
+        while (a < size && b < n) {
+            if (list[a] < values[b]) {
+                merged[m++] = list[a++];
+            } else if (list[a] > values[b]) {
+                merged[m++] = values[b++];
+            } else {
+                merged[m++] = list[a++];
+                b++;
+            }
+        }
+        while (a < size) {
+            merged[m++] = list[a++];
+        }
+        while (b < n) {
+            merged[m++] = values[b++];
+        }
+        lists[slot] = merged;
+        sizes[slot] = m;
+        if (m > size) {
+            touch(slot);
+        }
+        return m - size;
+    }
+
+    private void touch(int slot) {
+        stamps[slot] = ++changes;
+    }
+
+    /**
+     * @return the number of list changes so far
+     */
+    long changes() {
+        return changes;
+    }
+
+    /**
+     * @return the value changes() had right after key's list last changed, 0 if never
+     */
+    long changedAt(int key) {
+        int slot = find(key);
+        return slot < 0 ? 0 : stamps[slot];
+    }
+
+    /**
+     * @return keys with at least one neighbor, ascending
+     */
+    int[] sortedKeys() {
+        int[] result = new int[count];
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (lists[i] != null && sizes[i] > 0) {
+                result[n++] = keys[i];
+            }
+        }
+        result = Arrays.copyOf(result, n);
+        Arrays.sort(result);
+        return result;
+    }
+
+    public int degree(int key) {
+        int slot = find(key);
+        return slot < 0 ? 0 : sizes[slot];
+    }
+
+    /**
+     * @return the backing sorted array, valid up to degree(key); do not modify
+     */
+    int[] neighbors(int key) {
+        int slot = find(key);
+        return slot < 0 ? EMPTY : lists[slot];
+    }
+
+    public List<Integer> toList(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return new ArrayList<>();
+        }
+        int[] list = lists[slot];
+        List<Integer> result = new ArrayList<>(sizes[slot]);
+        for (int i = 0; i < sizes[slot]; i++) {
+            result.add(list[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Binary-searches the start of the page, so the cost is O(log degree + limit)
+     * whatever the degree.
+     *
+     * @return up to limit neighbors greater than after, ascending
+     */
+    public List<Integer> page(int key, int after, int limit) {
+        int slot = find(key);
+        if (slot < 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+        int[] list = lists[slot];
+        int size = sizes[slot];
+        int from = Arrays.binarySearch(list, 0, size, after);
+        from = from >= 0 ? from + 1 : -from - 1;
+        int to = (int) Math.min(size, (long) from + limit);
+        List<Integer> result = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            result.add(list[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Intersects two sorted lists. Lists of similar length are merged linearly;
+     * when one is GALLOP_RATIO times longer, every element of the short list is
+     * located in the long one by galloping, which costs O(small * log(large / small)),
+     * so a celebrity's follower list is never walked for a normal user.
+     */
+    static List<Integer> intersect(int[] a, int na, int[] b, int nb) {
+        if (na > nb) {
+            return intersect(b, nb, a, na);
+        }
+        List<Integer> result = new ArrayList<>();
+        if (na == 0) {
+            return result;
+        }
+        if (nb / na >= GALLOP_RATIO) {
+            int from = 0;
+            for (int i = 0; i < na && from < nb; i++) {
+                int target = a[i];
+                int step = 1;
+                int hi = from;
+                while (hi < nb && b[hi] < target) {
+                    from = hi + 1;
+                    hi += step;
+                    step <<= 1;
+                }
+                int j = Arrays.binarySearch(b, from, Math.min(hi + 1, nb), target);
+                if (j >= 0) {
+                    result.add(target);
+                    from = j + 1;
+                } else {
+                    from = -j - 1;
+                }
+            }
+            return result;
+        }
+        int i = 0;
+        int j = 0;
+        while (i < na && j < nb) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result.add(a[i]);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    private int find(int key) {
+        int slot = hash(key) & mask;
+        while (lists[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slotFor(int key) {
+        int slot = hash(key) & mask;
+        while (lists[slot] != null) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (count + 1 > (mask + 1) * 3 / 4) {
+            rehash();
+            return slotFor(key);
+        }
+        keys[slot] = key;
+        lists[slot] = EMPTY;
+        count++;
+        return slot;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[][] oldLists = lists;
+        int[] oldSizes = sizes;
+        long[] oldStamps = stamps;
+        int capacity = oldKeys.length * 2;
+        keys = new int[capacity];
+        lists = new int[capacity][];
+        sizes = new int[capacity];
+        stamps = new long[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldLists[i] != null) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (lists[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                lists[slot] = oldLists[i];
+                sizes[slot] = oldSizes[i];
+                stamps[slot] = oldStamps[i];
+            }
+        }
+    }
+
+    static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
+
+/**
+ * On-disk snapshot of a follow graph, read straight from memory-mapped pages.
+ * <p>
+ * Layout, big-endian, every section 8-byte aligned:
+ * a 64-byte header (magic, version, then per direction the key count and the
+ * offsets of its keys, offsets and data sections), followed for the followers
+ * and then the followings direction by the CSR sections:
+ * keys - sorted int user ids with at least one neighbor,
+ * offsets - long start of each key's record in data, plus the end,
+ * data - per key a varint degree, the first neighbor zigzag-varint encoded
+ * and the gaps to the following neighbors as varints.
+ * <p>
+ * write() builds the file beside its target and moves it into place, so a
+ * reader never maps a half-written snapshot.
+ * open() maps the file in 1GB read-only segments and decodes lists on demand,
+ * so startup does no deserialization and the data stays off the heap.
+ */
+class FollowGraphSnapshot {
+    private static final int MAGIC = 0x46475331;
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int SEGMENT_BITS = 30;
+
+    private MappedByteBuffer[] segments;
+    private Direction followers;
+    private Direction followings;
+
+    private FollowGraphSnapshot(MappedByteBuffer[] segments) throws IOException {
+        this.segments = segments;
+        if (getInt(0) != MAGIC || getInt(4) != VERSION) {
+            throw new IOException("Not a follow graph snapshot");
+        }
+        followers = new Direction(8);
+        followings = new Direction(36);
+    }
+
+    public static void write(FriendshipService service, Path file) throws IOException {
+        IntAdjacency[] directions = {service.followers(), service.followings()};
+        int[][] keys = new int[2][];
+        long[][] offsets = new long[2][];
+        long[] sectionStart = new long[6];
+        long position = HEADER;
+        for (int d = 0; d < 2; d++) {
+            keys[d] = directions[d].sortedKeys();
+            offsets[d] = new long[keys[d].length + 1];
+            for (int i = 0; i < keys[d].length; i++) {
+                offsets[d][i + 1] = offsets[d][i] + encodedLength(directions[d], keys[d][i]);
+            }
+            sectionStart[d * 3] = position;
+            position = align(position + 4L * keys[d].length);
+            sectionStart[d * 3 + 1] = position;
+            position = align(position + 8L * offsets[d].length);
+            sectionStart[d * 3 + 2] = position;
+            position = align(position + offsets[d][keys[d].length]);
+        }
+        Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName() + ".", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                for (int d = 0; d < 2; d++) {
+                    out.writeInt(keys[d].length);
+                    out.writeLong(sectionStart[d * 3]);
+                    out.writeLong(sectionStart[d * 3 + 1]);
+                    out.writeLong(sectionStart[d * 3 + 2]);
+                }
+                long written = 8 + 2 * 28;
+                written = pad(out, written, HEADER);
+                for (int d = 0; d < 2; d++) {
+                    for (int key : keys[d]) {
+                        out.writeInt(key);
+                    }
+                    written = pad(out, written + 4L * keys[d].length, sectionStart[d * 3 + 1]);
+                    for (long offset : offsets[d]) {
+                        out.writeLong(offset);
+                    }
+                    written = pad(out, written + 8L * offsets[d].length, sectionStart[d * 3 + 2]);
+                    for (int key : keys[d]) {
+                        int[] list = directions[d].neighbors(key);
+                        int degree = directions[d].degree(key);
+                        writeVarint(out, degree);
+                        writeVarint(out, (list[0] << 1) ^ (list[0] >> 31));
+                        for (int i = 1; i < degree; i++) {
+                            writeVarint(out, list[i] - list[i - 1]);
+                        }
+                    }
+                    written = pad(out, written + offsets[d][keys[d].length], align(written + offsets[d][keys[d].length]));
+                }
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    public static FollowGraphSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER) {
+                throw new IOException("Not a follow graph snapshot");
+            }
+            int count = (int) ((size + (1L << SEGMENT_BITS) - 1) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(1L << SEGMENT_BITS, size - start));
+            }
+            return new FollowGraphSnapshot(segments);
+        }
+    }
+
+    /*
+     * @param user_id: An integer
+     * @return: all followers and sort by user_id
+     */
+    public List<Integer> getFollowers(int user_id) {
+        return followers.list(user_id);
+    }
+
+    /*
+     * @param user_id: An integer
+     * @return: all followings and sort by user_id
+     */
+    public List<Integer> getFollowings(int user_id) {
+        return followings.list(user_id);
+    }
+
+    public int followerCount(int user_id) {
+        return followers.degree(user_id);
+    }
+
+    public int followingCount(int user_id) {
+        return followings.degree(user_id);
+    }
+
+    /**
+     * One direction of the graph: the keys, offsets and data sections.
+     */
+    private class Direction {
+        private int keyCount;
+        private long keys;
+        private long offsets;
+        private long data;
+
+        Direction(long header) {
+            keyCount = getInt(header);
+            keys = getLong(header + 4);
+            offsets = getLong(header + 12);
+            data = getLong(header + 20);
+        }
+
+        int degree(int user_id) {
+            long record = record(user_id);
+            return record < 0 ? 0 : (int) readVarint(new long[]{record});
+        }
+
+        List<Integer> list(int user_id) {
+            long record = record(user_id);
+            if (record < 0) {
+                return new ArrayList<>();
+            }
+            long[] position = {record};
+            int degree = (int) readVarint(position);
+            List<Integer> result = new ArrayList<>(degree);
+            int zigzag = (int) readVarint(position);
+            int value = (zigzag >>> 1) ^ -(zigzag & 1);
+            result.add(value);
+            for (int i = 1; i < degree; i++) {
+                value += (int) readVarint(position);
+                result.add(value);
+            }
+            return result;
+        }
+
+        /**
+         * @return absolute position of the user's record, or -1
+         */
+        private long record(int user_id) {
+            int lo = 0;
+            int hi = keyCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int key = getInt(keys + 4L * mid);
+                if (key < user_id) {
+                    lo = mid + 1;
+                } else if (key > user_id) {
+                    hi = mid - 1;
+                } else {
+                    return data + getLong(offsets + 8L * mid);
+                }
+            }
+            return -1;
+        }
+    }
+
+    // sections are 8-byte aligned and segments a multiple of 8 long, so ints and longs never straddle two segments
+    private int getInt(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getInt((int) (position & ((1L << SEGMENT_BITS) - 1)));
+    }
+
+    private long getLong(long position) {
+        return segments[(int) (position >>> SEGMENT_BITS)].getLong((int) (position & ((1L << SEGMENT_BITS) - 1)));
+    }
+
+    private long readVarint(long[] position) {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            long p = position[0]++;
+            byte b = segments[(int) (p >>> SEGMENT_BITS)].get((int) (p & ((1L << SEGMENT_BITS) - 1)));
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+            shift += 7;
+        }
+    }
+
+    private static long encodedLength(IntAdjacency direction, int key) {
+        int[] list = direction.neighbors(key);
+        int degree = direction.degree(key);
+        long length = varintLength(degree) + varintLength((list[0] << 1) ^ (list[0] >> 31));
+        for (int i = 1; i < degree; i++) {
+            length += varintLength(list[i] - list[i - 1]);
+        }
+        return length;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static long pad(DataOutputStream out, long written, long target) throws IOException {
+        for (; written < target; written++) {
+            out.write(0);
         }
+        return written;
     }
 }
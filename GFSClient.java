@@ -1,3 +1,29 @@
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
 /**
  * 566. GFS Client
  * <p>
@@ -29,17 +55,43 @@
  * <p>
  */
 public class GFSClient extends BaseGFSClient {
+    static final String SHARED_PREFIX = ".cas/";
 
-    private Map<String, Integer> map;
+    private ConcurrentHashMap<String, FileEntry> map;
     private int chunkSize;
+    private int parallelism;
+    private ExecutorService executor;
+    private ChunkCache<String> cache;
+    private ChunkCache<ByteBuffer> byteCache;
+    private boolean compress;
+    private boolean checksum;
+    private boolean dedup;
+    // content hash -> the stored chunk and how many file chunks refer to it
+    private ConcurrentHashMap<String, SharedChunk> shared = new ConcurrentHashMap<>();
 
     /*
      * @param chunkSize: An integer
      */
     public GFSClient(int chunkSize) {
+        this(chunkSize, 1);
+    }
+
+    /*
+     * @param chunkSize: An integer
+     * @param parallelism: chunk reads or writes kept in flight per call, 1 for serial
+     */
+    public GFSClient(int chunkSize, int parallelism) {
         // do intialization if necessary
-        this.map = new HashMap<>();
+        this.map = new ConcurrentHashMap<>();
         this.chunkSize = chunkSize;
+        this.parallelism = parallelism;
+        if (parallelism > 1) {
+            this.executor = Executors.newFixedThreadPool(parallelism, r -> {
+                Thread t = new Thread(r, "gfs-chunk-io");
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
 
     /*
@@ -48,18 +100,23 @@ public class GFSClient extends BaseGFSClient {
      */
     public String read(String filename) {
         // write your code here
-        if (!map.containsKey(filename)) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = lockRead(entry);
+        if (meta == null) {
             return null;
         }
-        int chunk = map.get(filename);
-        StringBuffer sbuf = new StringBuffer();
-        for (int i = 0; i < chunk; i++) {
-            String content = readChunk(filename, i);
-            if (content != null) {
-                sbuf.append(content);
-            }
+        try {
+            int chunk = meta.chunks;
+            StringBuffer sbuf = new StringBuffer();
+            pipeline(0, chunk, i -> loadChunk(filename, i), (i, content) -> {
+                if (content != null) {
+                    sbuf.append(content);
+                }
+            });
+            return sbuf.toString();
+        } finally {
+            entry.lock.readLock().unlock();
         }
-        return sbuf.toString();
     }
 
     /*
@@ -69,32 +126,1645 @@ public class GFSClient extends BaseGFSClient {
      */
     public void write(String filename, String content) {
         // write your code here
-        int length = content.length();
-        int chunk = (length - 1) / chunkSize + 1;
-        map.put(filename, chunk);
-        for (int i = 0; i < chunk; i++) {
-            int start = i * chunkSize;
-            int end = i == chunk - 1 ? length : (i + 1) * chunkSize;
-            String subContent = content.substring(start, end);
-            writeChunk(filename, i, subContent);
+        FileEntry entry = entry(filename);
+        entry.lock.writeLock().lock();
+        try {
+            int length = content.length();
+            int chunk = (length - 1) / chunkSize + 1;
+            pipeline(0, chunk, i -> {
+                int start = i * chunkSize;
+                int end = i == chunk - 1 ? length : (i + 1) * chunkSize;
+                String subContent = content.substring(start, end);
+                storeChunk(filename, i, subContent);
+                return null;
+            }, null);
+            commit(filename, entry, chunk, length);
+        } finally {
+            unlockWrite(entry);
         }
+    }
 
+    /*
+     * Reads a file written with write(filename, ByteBuffer).
+     * @param filename: a file name
+     * @return: the file content, or null if there is no such file
+     */
+    public ByteBuffer readBytes(String filename) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = lockRead(entry);
+        if (meta == null) {
+            return null;
+        }
+        try {
+            int chunk = meta.chunks;
+            ByteBuffer[] chunks = new ByteBuffer[chunk];
+            long[] total = new long[1];
+            pipeline(0, chunk, i -> loadChunkBytes(filename, i), (i, content) -> {
+                if (content != null) {
+                    chunks[i] = content;
+                    total[0] += content.remaining();
+                }
+            });
+            if (total[0] > Integer.MAX_VALUE) {
+                throw new IllegalStateException(filename + " is too large for one buffer");
+            }
+            ByteBuffer result = ByteBuffer.allocate((int) total[0]);
+            for (ByteBuffer content : chunks) {
+                if (content != null) {
+                    result.put(content);
+                }
+            }
+            result.flip();
+            return result;
+        } finally {
+            entry.lock.readLock().unlock();
+        }
     }
-}
 
-class BaseGFSClient {
-    private Map<String, String> chunk_list;
+    /*
+     * Writes binary content split at exactly chunkSize bytes. Each chunk is a
+     * slice of content, not a copy; content's position is left unchanged.
+     * @param filename: a file name
+     * @param content: the bytes between content's position and limit
+     * @return: nothing
+     */
+    public void write(String filename, ByteBuffer content) {
+        FileEntry entry = entry(filename);
+        entry.lock.writeLock().lock();
+        try {
+            int base = content.position();
+            int length = content.remaining();
+            int chunk = Math.max(1, (length - 1) / chunkSize + 1);
+            pipeline(0, chunk, i -> {
+                int start = i * chunkSize;
+                int size = Math.min(chunkSize, length - start);
+                storeChunkBytes(filename, i, content.slice(base + start, Math.max(0, size)));
+                return null;
+            }, null);
+            commit(filename, entry, chunk, length);
+        } finally {
+            unlockWrite(entry);
+        }
+    }
 
-    public BaseGFSClient() {
+    /*
+     * Reads only the chunks covering [offset, offset + length) of a file
+     * written as a String. The range is cut short at the end of the file.
+     * @param filename: a file name
+     * @param offset: the first char to read
+     * @param length: the most chars to read
+     * @return: the chars in range, or null if there is no such file
+     */
+    public String read(String filename, long offset, int length) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = lockRead(entry);
+        if (meta == null) {
+            return null;
+        }
+        try {
+            checkRange(offset, length);
+            long end = Math.min(meta.length, offset + length);
+            if (offset >= end) {
+                return "";
+            }
+            StringBuilder sb = new StringBuilder((int) (end - offset));
+            pipeline((int) (offset / chunkSize), (int) ((end - 1) / chunkSize) + 1, i -> loadChunk(filename, i), (i, content) -> {
+                long chunkStart = (long) i * chunkSize;
+                if (content != null) {
+                    int from = (int) Math.max(0, offset - chunkStart);
+                    int to = (int) Math.min(content.length(), end - chunkStart);
+                    if (from < to) {
+                        sb.append(content, from, to);
+                    }
+                }
+            });
+            return sb.toString();
+        } finally {
+            entry.lock.readLock().unlock();
+        }
     }
 
-    public String readChunk(String filename, int chunkIndex) {
-        // Read a chunk from GFS
-        return "";
+    /*
+     * Reads only the chunks covering [offset, offset + length) of a file
+     * written as bytes. The range is cut short at the end of the file.
+     * @param filename: a file name
+     * @param offset: the first byte to read
+     * @param length: the most bytes to read
+     * @return: the bytes in range, or null if there is no such file
+     */
+    public ByteBuffer readBytes(String filename, long offset, int length) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = lockRead(entry);
+        if (meta == null) {
+            return null;
+        }
+        try {
+            checkRange(offset, length);
+            long end = Math.min(meta.length, offset + length);
+            if (offset >= end) {
+                return ByteBuffer.allocate(0);
+            }
+            ByteBuffer result = ByteBuffer.allocate((int) (end - offset));
+            pipeline((int) (offset / chunkSize), (int) ((end - 1) / chunkSize) + 1, i -> loadChunkBytes(filename, i), (i, content) -> {
+                long chunkStart = (long) i * chunkSize;
+                if (content != null) {
+                    int from = (int) Math.max(0, offset - chunkStart);
+                    int to = (int) Math.min(content.remaining(), end - chunkStart);
+                    if (from < to) {
+                        result.put((int) (chunkStart + from - offset), content, content.position() + from, to - from);
+                    }
+                }
+            });
+            return result;
+        } finally {
+            entry.lock.readLock().unlock();
+        }
     }
 
-    public void writeChunk(String filename, int chunkIndex,
-                           String content) {
-        // Write a chunk to GFS
+    /*
+     * Appends to a file written as a String, rewriting only its last chunk
+     * and adding new ones. A missing file is created.
+     * @param filename: a file name
+     * @param content: a string
+     * @return: nothing
+     */
+    public void append(String filename, String content) {
+        FileEntry entry = entry(filename);
+        entry.lock.writeLock().lock();
+        try {
+            FileMeta meta = entry.meta;
+            if (meta == null) {
+                write(filename, content);
+                return;
+            }
+            int length = content.length();
+            int tail = meta.chunks - 1;
+            int tailLength = (int) (meta.length - (long) tail * chunkSize);
+            int fill = Math.min(length, chunkSize - tailLength);
+            if (fill > 0) {
+                String old = loadChunk(filename, tail);
+                storeChunk(filename, tail, (old == null ? "" : old) + content.substring(0, fill));
+            }
+            int chunk = meta.chunks + (length - fill + chunkSize - 1) / chunkSize;
+            pipeline(meta.chunks, chunk, i -> {
+                int start = fill + (i - meta.chunks) * chunkSize;
+                storeChunk(filename, i, content.substring(start, Math.min(length, start + chunkSize)));
+                return null;
+            }, null);
+            commit(filename, entry, chunk, meta.length + length);
+        } finally {
+            unlockWrite(entry);
+        }
+    }
+
+    /*
+     * Appends to a file written as bytes, rewriting only its last chunk and
+     * adding new ones. A missing file is created.
+     * @param filename: a file name
+     * @param content: the bytes between content's position and limit
+     * @return: nothing
+     */
+    public void append(String filename, ByteBuffer content) {
+        FileEntry entry = entry(filename);
+        entry.lock.writeLock().lock();
+        try {
+            FileMeta meta = entry.meta;
+            if (meta == null) {
+                write(filename, content);
+                return;
+            }
+            int base = content.position();
+            int length = content.remaining();
+            int tail = meta.chunks - 1;
+            int tailLength = (int) (meta.length - (long) tail * chunkSize);
+            int fill = Math.min(length, chunkSize - tailLength);
+            if (fill > 0) {
+                ByteBuffer old = loadChunkBytes(filename, tail);
+                ByteBuffer merged = ByteBuffer.allocate((old == null ? 0 : old.remaining()) + fill);
+                if (old != null) {
+                    merged.put(old);
+                }
+                merged.put(content.slice(base, fill));
+                merged.flip();
+                storeChunkBytes(filename, tail, merged);
+            }
+            int chunk = meta.chunks + (length - fill + chunkSize - 1) / chunkSize;
+            pipeline(meta.chunks, chunk, i -> {
+                int start = fill + (i - meta.chunks) * chunkSize;
+                storeChunkBytes(filename, i, content.slice(base + start, Math.min(chunkSize, length - start)));
+                return null;
+            }, null);
+            commit(filename, entry, chunk, meta.length + length);
+        } finally {
+            unlockWrite(entry);
+        }
+    }
+
+    /*
+     * Streams a file chunk by chunk. At most parallelism chunks are held or
+     * prefetched at a time, whatever the file size. The reader holds the
+     * file's read lease until it is closed or reaches the end, so it must be
+     * used on the thread that opened it.
+     * @param filename: a file name
+     * @return: a reader over the file content, or null if there is no such file
+     */
+    public Reader openReader(String filename) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = lockRead(entry);
+        if (meta == null) {
+            return null;
+        }
+        return new ChunkReader(filename, entry, meta.chunks);
+    }
+
+    /*
+     * Streams content into a file, sending each chunk as soon as it is full and
+     * keeping at most parallelism chunks in flight. The file is replaced when
+     * the writer is closed. The writer holds the file's write lease until it
+     * is closed, so it must be used on the thread that opened it.
+     * @param filename: a file name
+     * @return: a writer for the new file content
+     */
+    public Writer openWriter(String filename) {
+        FileEntry entry = entry(filename);
+        entry.lock.writeLock().lock();
+        return new ChunkWriter(filename, entry);
+    }
+
+    /*
+     * @param filename: a file name
+     * @return: the file's version, bumped by every write or append, or -1 if
+     *          there is no such file
+     */
+    public long version(String filename) {
+        FileEntry entry = map.get(filename);
+        FileMeta meta = entry == null ? null : entry.meta;
+        return meta == null ? -1 : meta.version;
+    }
+
+    /*
+     * Caches chunks read or written through this client. Pass null to turn
+     * the cache off.
+     * @param cache: a cache of chunk contents
+     * @return: nothing
+     */
+    public void setCache(ChunkCache<String> cache) {
+        this.cache = cache;
+    }
+
+    /*
+     * Caches chunks read or written as bytes, e.g. a cache weighed by
+     * ByteBuffer::remaining. Pass null to turn it off.
+     * @param byteCache: a cache of chunk contents
+     * @return: nothing
+     */
+    public void setByteCache(ChunkCache<ByteBuffer> byteCache) {
+        this.byteCache = byteCache;
+    }
+
+    /*
+     * Compresses each chunk with a fast LZ-style codec before it is sent,
+     * keeping it as is when that would not make it smaller. Chunks are framed
+     * while compression or checksums are on, so set both before writing any
+     * file and keep them for as long as it is read.
+     * @param compress: whether to compress chunks
+     * @return: nothing
+     */
+    public void setCompression(boolean compress) {
+        this.compress = compress;
+    }
+
+    /*
+     * Stores a CRC32C with each chunk and checks it on every read, failing
+     * the read with an UncheckedIOException on a mismatch.
+     * @param checksum: whether to checksum chunks
+     * @return: nothing
+     */
+    public void setChecksums(boolean checksum) {
+        this.checksum = checksum;
+    }
+
+    /*
+     * Stores each distinct chunk content once, under SHARED_PREFIX and its
+     * SHA-256, and has file chunks refer to it by hash. A chunk whose content
+     * is already stored, by this file or any other, is not sent again. Set it
+     * before writing any file; file names starting with SHARED_PREFIX are
+     * then reserved.
+     * @param dedup: whether to deduplicate chunks
+     * @return: nothing
+     */
+    public void setDeduplication(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    /*
+     * @return: the number of distinct chunk contents stored while
+     *          deduplicating
+     */
+    public int sharedChunks() {
+        return shared.size();
+    }
+
+    /*
+     * Stops the chunk I/O threads, if any.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Runs task for chunks [from, to) with up to parallelism of them in flight and
+     * hands the results to sink in chunk order, so a slow chunk only holds back
+     * the ones after it. Runs serially on the caller's thread when parallelism is 1.
+     */
+    private <T> void pipeline(int from, int to, ChunkTask<T> task, ChunkSink<T> sink) {
+        if (executor == null || to - from <= 1) {
+            for (int i = from; i < to; i++) {
+                T result = task.run(i);
+                if (sink != null) {
+                    sink.accept(i, result);
+                }
+            }
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Future<T>[] window = (Future<T>[]) new Future<?>[parallelism];
+        AtomicBoolean stop = new AtomicBoolean();
+        int next = from;
+        try {
+            for (int i = from; i < to; i++) {
+                while (next < to && next - i < parallelism) {
+                    window[next % parallelism] = submit(task, next++, stop);
+                }
+                T result = await(window[i % parallelism]);
+                if (sink != null) {
+                    sink.accept(i, result);
+                }
+            }
+        } finally {
+            settle(stop, Arrays.asList(window));
+        }
+    }
+
+    private String loadChunk(String filename, int index) {
+        if (cache == null) {
+            return fetchChunk(filename, index);
+        }
+        String content = cache.get(filename, index);
+        if (content == null) {
+            content = fetchChunk(filename, index);
+            if (content != null) {
+                cache.put(filename, index, content);
+            }
+        }
+        return content;
+    }
+
+    private void storeChunk(String filename, int index, String content) {
+        if (viaBytes()) {
+            // UTF-16 keeps every char, paired or not
+            ByteBuffer chars = ByteBuffer.allocate(2 * content.length());
+            chars.asCharBuffer().put(content);
+            putChunkBytes(filename, index, chars);
+        } else {
+            writeChunk(filename, index, content);
+        }
+        invalidate(filename, index);
+    }
+
+    private String fetchChunk(String filename, int index) {
+        if (!viaBytes()) {
+            return readChunk(filename, index);
+        }
+        ByteBuffer content = fetchChunkBytes(filename, index);
+        return content == null ? null : content.asCharBuffer().toString();
+    }
+
+    private ByteBuffer fetchChunkBytes(String filename, int index) {
+        ByteBuffer content;
+        if (dedup) {
+            String hash = map.get(filename).hashes.get(index);
+            content = hash == null ? null : readChunkBytes(SHARED_PREFIX + hash, 0);
+        } else {
+            content = readChunkBytes(filename, index);
+        }
+        if (content == null || !framed()) {
+            return content;
+        }
+        return ChunkFrame.decode(content, checksum, filename, index);
+    }
+
+    /*
+     * Runs under the file's write lease. While deduplicating, the new hash is
+     * only staged; the file keeps referring to its old chunks until commit.
+     */
+    private void putChunkBytes(String filename, int index, ByteBuffer content) {
+        if (!dedup) {
+            writeChunkBytes(filename, index, framed() ? ChunkFrame.encode(content, compress, checksum) : content);
+            return;
+        }
+        String hash = contentHash(content);
+        retainShared(hash, content);
+        String replaced = map.get(filename).staged.put(index, hash);
+        if (replaced != null) {
+            releaseShared(replaced);
+        }
+    }
+
+    /*
+     * Publishes the file version just written: swaps in its staged chunk
+     * hashes, drops the chunks past its end and releases what the old version
+     * referred to. Runs under the file's write lease.
+     */
+    private void commit(String filename, FileEntry entry, int chunks, long length) {
+        FileMeta old = entry.meta;
+        entry.meta = FileMeta.next(old, chunks, length);
+        List<String> released = new ArrayList<>();
+        for (Map.Entry<Integer, String> e : entry.staged.entrySet()) {
+            String prev = entry.hashes.put(e.getKey(), e.getValue());
+            if (prev != null) {
+                released.add(prev);
+            }
+        }
+        entry.staged.clear();
+        if (old != null) {
+            for (int i = chunks; i < old.chunks; i++) {
+                invalidate(filename, i);
+                String hash = entry.hashes.remove(i);
+                if (hash != null) {
+                    released.add(hash);
+                }
+            }
+        }
+        for (String hash : released) {
+            releaseShared(hash);
+        }
+    }
+
+    // drops what a failed write staged, then gives up the write lease
+    private void unlockWrite(FileEntry entry) {
+        try {
+            for (String hash : entry.staged.values()) {
+                releaseShared(hash);
+            }
+        } finally {
+            entry.staged.clear();
+            entry.lock.writeLock().unlock();
+        }
+    }
+
+    /*
+     * The store and delete of one hash both run under its SharedChunk's lock,
+     * so they never reorder, and other hashes never wait on them. A released
+     * entry is marked dead before it leaves the map; retainers that raced
+     * with it start over on a fresh entry.
+     */
+    private void retainShared(String hash, ByteBuffer content) {
+        while (true) {
+            SharedChunk chunk = shared.computeIfAbsent(hash, h -> new SharedChunk());
+            synchronized (chunk) {
+                if (chunk.dead) {
+                    continue;
+                }
+                if (!chunk.stored) {
+                    try {
+                        writeChunkBytes(SHARED_PREFIX + hash, 0, framed() ? ChunkFrame.encode(content, compress, checksum) : content);
+                    } catch (RuntimeException e) {
+                        if (chunk.refs == 0) {
+                            chunk.dead = true;
+                            shared.remove(hash, chunk);
+                        }
+                        throw e;
+                    }
+                    chunk.stored = true;
+                }
+                chunk.refs++;
+                return;
+            }
+        }
+    }
+
+    private void releaseShared(String hash) {
+        SharedChunk chunk = shared.get(hash);
+        if (chunk == null) {
+            return;
+        }
+        synchronized (chunk) {
+            if (chunk.dead || --chunk.refs > 0) {
+                return;
+            }
+            try {
+                deleteChunk(SHARED_PREFIX + hash, 0);
+            } finally {
+                chunk.dead = true;
+                shared.remove(hash, chunk);
+            }
+        }
+    }
+
+    private static String contentHash(ByteBuffer content) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(content.duplicate());
+            return HexFormat.of().formatHex(sha256.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private boolean framed() {
+        return compress || checksum;
+    }
+
+    // String chunks are sent as bytes whenever they are framed or shared
+    private boolean viaBytes() {
+        return compress || checksum || dedup;
+    }
+
+    private FileEntry entry(String filename) {
+        if (dedup && filename.startsWith(SHARED_PREFIX)) {
+            throw new IllegalArgumentException("Reserved file name: " + filename);
+        }
+        return map.computeIfAbsent(filename, f -> new FileEntry());
+    }
+
+    // takes the file's read lease, unless there is no such file
+    private static FileMeta lockRead(FileEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        entry.lock.readLock().lock();
+        FileMeta meta = entry.meta;
+        if (meta == null) {
+            entry.lock.readLock().unlock();
+        }
+        return meta;
+    }
+
+    private static void checkRange(long offset, int length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Bad range: offset " + offset + ", length " + length);
+        }
+    }
+
+    // cached buffers are shared, so each caller gets its own view
+    private ByteBuffer loadChunkBytes(String filename, int index) {
+        if (byteCache == null) {
+            return fetchChunkBytes(filename, index);
+        }
+        ByteBuffer content = byteCache.get(filename, index);
+        if (content == null) {
+            content = fetchChunkBytes(filename, index);
+            if (content == null) {
+                return null;
+            }
+            content = content.asReadOnlyBuffer();
+            byteCache.put(filename, index, content);
+        }
+        return content.duplicate();
+    }
+
+    private void storeChunkBytes(String filename, int index, ByteBuffer content) {
+        putChunkBytes(filename, index, content);
+        invalidate(filename, index);
+    }
+
+    private void invalidate(String filename, int index) {
+        if (cache != null) {
+            cache.invalidate(filename, index);
+        }
+        if (byteCache != null) {
+            byteCache.invalidate(filename, index);
+        }
+    }
+
+
+    // tasks still queued when stop is set are skipped rather than run
+    private <T> Future<T> submit(ChunkTask<T> task, int index, AtomicBoolean stop) {
+        return executor.submit(() -> stop.get() ? null : task.run(index));
+    }
+
+    /**
+     * Stops the queued tasks and waits for the running ones to finish, so
+     * that no chunk load or store outlives the lease of the call that
+     * started it. Their results and failures are dropped.
+     */
+    private static void settle(AtomicBoolean stop, Collection<? extends Future<?>> futures) {
+        stop.set(true);
+        boolean interrupted = false;
+        for (Future<?> f : futures) {
+            while (f != null) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Reads a file chunk by chunk, prefetching up to parallelism chunks ahead.
+     */
+    private class ChunkReader extends Reader {
+        private String filename;
+        private FileEntry entry;
+        private int chunks;
+        private int nextFetch;
+        private ArrayDeque<Future<String>> ahead = new ArrayDeque<>();
+        private AtomicBoolean stop = new AtomicBoolean();
+        private String current = "";
+        private int pos;
+        private boolean closed;
+        private boolean eof;
+
+        ChunkReader(String filename, FileEntry entry, int chunks) {
+            this.filename = filename;
+            this.entry = entry;
+            this.chunks = chunks;
+        }
+
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            }
+            if (closed) {
+                throw new IOException("Reader closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            while (pos == current.length()) {
+                if (!advance()) {
+                    eof = true;
+                    close();
+                    return -1;
+                }
+            }
+            int n = Math.min(len, current.length() - pos);
+            current.getChars(pos, pos + n, cbuf, off);
+            pos += n;
+            return n;
+        }
+
+        private boolean advance() {
+            String next;
+            if (executor == null) {
+                if (nextFetch == chunks) {
+                    return false;
+                }
+                next = loadChunk(filename, nextFetch++);
+            } else {
+                while (nextFetch < chunks && ahead.size() < parallelism) {
+                    ahead.add(submit(i -> loadChunk(filename, i), nextFetch++, stop));
+                }
+                if (ahead.isEmpty()) {
+                    return false;
+                }
+                next = await(ahead.poll());
+            }
+            current = next == null ? "" : next;
+            pos = 0;
+            return true;
+        }
+
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                settle(stop, ahead);
+            } finally {
+                ahead.clear();
+                current = "";
+                pos = 0;
+                entry.lock.readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Cuts the written content into chunkSize pieces and sends each one as soon
+     * as it is full, waiting for the oldest send when parallelism are in flight.
+     */
+    private class ChunkWriter extends Writer {
+        private String filename;
+        private FileEntry entry;
+        private char[] buffer = new char[chunkSize];
+        private int filled;
+        private int index;
+        private long length;
+        private ArrayDeque<Future<Void>> inFlight = new ArrayDeque<>();
+        private AtomicBoolean stop = new AtomicBoolean();
+        private boolean closed;
+
+        ChunkWriter(String filename, FileEntry entry) {
+            this.filename = filename;
+            this.entry = entry;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Writer closed");
+            }
+            while (len > 0) {
+                int n = Math.min(len, chunkSize - filled);
+                System.arraycopy(cbuf, off, buffer, filled, n);
+                filled += n;
+                length += n;
+                off += n;
+                len -= n;
+                if (filled == chunkSize) {
+                    send();
+                }
+            }
+        }
+
+        private void send() {
+            String subContent = new String(buffer, 0, filled);
+            int i = index++;
+            filled = 0;
+            if (executor == null) {
+                storeChunk(filename, i, subContent);
+                return;
+            }
+            if (inFlight.size() == parallelism) {
+                await(inFlight.poll());
+            }
+            inFlight.add(submit(c -> {
+                storeChunk(filename, c, subContent);
+                return null;
+            }, i, stop));
+        }
+
+        public void flush() {
+            while (!inFlight.isEmpty()) {
+                await(inFlight.poll());
+            }
+        }
+
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // like write(), an empty file is still one empty chunk
+                if (filled > 0 || index == 0) {
+                    send();
+                }
+                flush();
+                commit(filename, entry, index, length);
+            } finally {
+                try {
+                    settle(stop, inFlight);
+                } finally {
+                    unlockWrite(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * A file's lease and current metadata. Writers replace meta under the write
+     * lock once all their chunks are stored, and readers hold the read lock
+     * for as long as they fetch chunks, so a reader sees one whole version.
+     * Each file has its own lock; files never wait on each other.
+     */
+    private static class FileEntry {
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        volatile FileMeta meta;
+        // chunk index -> content hash, while deduplicating
+        final Map<Integer, String> hashes = new ConcurrentHashMap<>();
+        // hashes of the chunks a write in progress has stored so far
+        final Map<Integer, String> staged = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * One deduplicated chunk content. Guarded by its own monitor.
+     */
+    private static class SharedChunk {
+        int refs;
+        boolean stored;
+        boolean dead;
+    }
+
+    /**
+     * What the client knows about one version of a file: its chunk count and
+     * its length, in chars or bytes depending on how it was written.
+     */
+    private static class FileMeta {
+        final int chunks;
+        final long length;
+        final long version;
+
+        FileMeta(int chunks, long length, long version) {
+            this.chunks = chunks;
+            this.length = length;
+            this.version = version;
+        }
+
+        static FileMeta next(FileMeta old, int chunks, long length) {
+            return new FileMeta(chunks, length, old == null ? 1 : old.version + 1);
+        }
+    }
+
+    private interface ChunkTask<T> {
+        T run(int index);
+    }
+
+    private interface ChunkSink<T> {
+        void accept(int index, T result);
+    }
+}
+
+/**
+ * The stored form of a chunk when compression or checksums are on: a flags
+ * byte, a CRC32C over the flags, raw length and payload, the raw length, then
+ * the payload, raw or LZ4-compressed. A frame can be up to HEADER bytes longer than its chunk.
+ */
+class ChunkFrame {
+    static final int HEADER = 9;
+    static final int COMPRESSED = 1;
+    static final int CHECKSUMMED = 2;
+
+    /*
+     * Frames the bytes between content's position and limit, leaving content
+     * untouched.
+     */
+    static ByteBuffer encode(ByteBuffer content, boolean compress, boolean checksum) {
+        int rawLength = content.remaining();
+        int flags = 0;
+        ByteBuffer payload = content.duplicate();
+        if (compress && rawLength > 0) {
+            byte[] raw = new byte[rawLength];
+            content.duplicate().get(raw);
+            byte[] packed = new byte[Lz4Codec.maxCompressedLength(rawLength)];
+            int packedLength = Lz4Codec.compress(raw, rawLength, packed);
+            if (packedLength < rawLength) {
+                payload = ByteBuffer.wrap(packed, 0, packedLength);
+                flags |= COMPRESSED;
+            }
+        }
+        int crc = 0;
+        if (checksum) {
+            flags |= CHECKSUMMED;
+            crc = crc(flags, rawLength, payload);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(HEADER + payload.remaining());
+        frame.put((byte) flags).putInt(crc).putInt(rawLength).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    /*
+     * @param checksum: whether the frame must carry a checksum, so that a
+     *                  cleared flag cannot switch the check off
+     * @return: the chunk's raw bytes
+     */
+    static ByteBuffer decode(ByteBuffer frame, boolean checksum, String filename, int chunkIndex) {
+        if (frame.remaining() < HEADER) {
+            throw corrupt(filename, chunkIndex, "frame too short");
+        }
+        ByteBuffer f = frame.duplicate();
+        int flags = f.get();
+        int crc = f.getInt();
+        int rawLength = f.getInt();
+        ByteBuffer payload = f.slice();
+        if ((flags & CHECKSUMMED) != 0) {
+            if (crc(flags, rawLength, payload) != crc) {
+                throw corrupt(filename, chunkIndex, "checksum mismatch");
+            }
+        } else if (checksum) {
+            throw corrupt(filename, chunkIndex, "checksum missing");
+        }
+        if ((flags & COMPRESSED) == 0) {
+            if (payload.remaining() != rawLength) {
+                throw corrupt(filename, chunkIndex, "length mismatch");
+            }
+            return payload;
+        }
+        if (rawLength < 0) {
+            throw corrupt(filename, chunkIndex, "negative length");
+        }
+        byte[] packed = new byte[payload.remaining()];
+        payload.get(packed);
+        byte[] raw = new byte[rawLength];
+        if (!Lz4Codec.decompress(packed, packed.length, raw)) {
+            throw corrupt(filename, chunkIndex, "malformed compressed data");
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    private static int crc(int flags, int rawLength, ByteBuffer payload) {
+        CRC32C crc32c = new CRC32C();
+        crc32c.update(flags & 0xFF);
+        crc32c.update(ByteBuffer.allocate(4).putInt(0, rawLength));
+        crc32c.update(payload.duplicate());
+        return (int) crc32c.getValue();
+    }
+
+    private static UncheckedIOException corrupt(String filename, int chunkIndex, String why) {
+        return new UncheckedIOException(new IOException("Corrupt chunk " + chunkIndex + " of " + filename + ": " + why));
+    }
+}
+
+/**
+ * An LZ4 block codec: a sequence of (literals, back-reference) pairs found
+ * with a single-probe hash table of 4-byte prefixes. Fast rather than tight.
+ */
+class Lz4Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /*
+     * @return: the number of bytes written to dst
+     */
+    static int compress(byte[] src, int length, byte[] dst) {
+        int[] table = new int[1 << HASH_LOG];
+        int anchor = 0;
+        int ip = 1;
+        int op = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+        int matchLimit = length - LAST_LITERALS;
+        while (ip < limit) {
+            int sequence = readInt(src, ip);
+            int h = (sequence * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = ip;
+            if (ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                // skip faster through data that does not compress
+                ip += 1 + ((ip - anchor) >>> 6);
+                continue;
+            }
+            while (ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                ip--;
+                ref--;
+            }
+            int end = ip + MIN_MATCH;
+            int r = ref + MIN_MATCH;
+            while (end < matchLimit && src[end] == src[r]) {
+                end++;
+                r++;
+            }
+            op = writeSequence(src, anchor, ip - anchor, ip - ref, end - ip - MIN_MATCH, dst, op);
+            ip = end;
+            anchor = end;
+        }
+        return writeSequence(src, anchor, length - anchor, 0, 0, dst, op);
+    }
+
+    /*
+     * @return: false if src is not a valid block of exactly dst.length bytes
+     */
+    static boolean decompress(byte[] src, int length, byte[] dst) {
+        int ip = 0;
+        int op = 0;
+        while (ip < length) {
+            int token = src[ip++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    if (ip == length) {
+                        return false;
+                    }
+                    b = src[ip++] & 0xFF;
+                    literals += b;
+                } while (b == 255 && literals <= length);
+            }
+            if (literals > length - ip || literals > dst.length - op) {
+                return false;
+            }
+            System.arraycopy(src, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if (ip == length) {
+                break;
+            }
+            if (length - ip < 2) {
+                return false;
+            }
+            int offset = (src[ip] & 0xFF) | (src[ip + 1] & 0xFF) << 8;
+            ip += 2;
+            if (offset == 0 || offset > op) {
+                return false;
+            }
+            int match = token & 15;
+            if (match == 15) {
+                int b;
+                do {
+                    if (ip == length) {
+                        return false;
+                    }
+                    b = src[ip++] & 0xFF;
+                    match += b;
+                } while (b == 255 && match <= dst.length);
+            }
+            match += MIN_MATCH;
+            if (match > dst.length - op) {
+                return false;
+            }
+            // byte by byte, since a match may overlap its own output
+            for (int i = 0; i < match; i++, op++) {
+                dst[op] = dst[op - offset];
+            }
+        }
+        return ip == length && op == dst.length;
+    }
+
+    private static int writeSequence(byte[] src, int from, int literals, int offset, int match, byte[] dst, int op) {
+        int token = op++;
+        dst[token] = (byte) (Math.min(literals, 15) << 4 | (offset == 0 ? 0 : Math.min(match, 15)));
+        op = writeLength(literals, dst, op);
+        System.arraycopy(src, from, dst, op, literals);
+        op += literals;
+        if (offset != 0) {
+            dst[op++] = (byte) offset;
+            dst[op++] = (byte) (offset >>> 8);
+            op = writeLength(match, dst, op);
+        }
+        return op;
+    }
+
+    // the part of a length over 15, as a run of 255s and a final remainder
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length >= 15) {
+            int rest = length - 15;
+            while (rest >= 255) {
+                dst[op++] = (byte) 255;
+                rest -= 255;
+            }
+            dst[op++] = (byte) rest;
+        }
+        return op;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+}
+
+/**
+ * A GFSClient backed by several in-process chunkservers. Each chunk is written
+ * to REPLICAS consecutive servers starting at a slot picked by hashing
+ * (filename, chunkIndex), and read from the preferred server if it holds a
+ * replica, otherwise from the least loaded one, falling back to the others if
+ * a read fails or finds no chunk. String chunks are stored as raw UTF-16, since
+ * they are cut by char and may split a surrogate pair.
+ */
+class ReplicatedGFSClient extends GFSClient {
+    static final int REPLICAS = 3;
+
+    private LocalChunkServer[] servers;
+    private int replicas;
+    private int preferred;
+
+    /*
+     * @param chunkSize: An integer
+     * @param parallelism: chunk reads or writes kept in flight per call
+     * @param servers: the chunkservers, at least one
+     * @param preferred: index of the nearest server, or -1 for none
+     */
+    public ReplicatedGFSClient(int chunkSize, int parallelism, List<LocalChunkServer> servers, int preferred) {
+        super(chunkSize, parallelism);
+        this.servers = servers.toArray(new LocalChunkServer[0]);
+        this.replicas = Math.min(REPLICAS, this.servers.length);
+        this.preferred = preferred;
+    }
+
+    public String readChunk(String filename, int chunkIndex) {
+        ByteBuffer content = readChunkBytes(filename, chunkIndex);
+        return content == null ? null : content.asCharBuffer().toString();
+    }
+
+    public void writeChunk(String filename, int chunkIndex, String content) {
+        ByteBuffer chars = ByteBuffer.allocate(2 * content.length());
+        chars.asCharBuffer().put(content);
+        writeChunkBytes(filename, chunkIndex, chars);
+    }
+
+    public ByteBuffer readChunkBytes(String filename, int chunkIndex) {
+        int first = firstReplica(filename, chunkIndex);
+        int pick = -1;
+        for (int r = 0; r < replicas; r++) {
+            int s = (first + r) % servers.length;
+            if (s == preferred) {
+                pick = s;
+                break;
+            }
+            if (pick < 0 || servers[s].load() < servers[pick].load()) {
+                pick = s;
+            }
+        }
+        UncheckedIOException failure = null;
+        for (int r = -1; r < replicas; r++) {
+            int s = r < 0 ? pick : (first + r) % servers.length;
+            if (r >= 0 && s == pick) {
+                continue;
+            }
+            try {
+                ByteBuffer content = servers[s].read(filename, chunkIndex);
+                if (content != null) {
+                    return content;
+                }
+            } catch (UncheckedIOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
+    public void writeChunkBytes(String filename, int chunkIndex, ByteBuffer content) {
+        int first = firstReplica(filename, chunkIndex);
+        for (int r = 0; r < replicas; r++) {
+            servers[(first + r) % servers.length].write(filename, chunkIndex, content);
+        }
+    }
+
+    public void deleteChunk(String filename, int chunkIndex) {
+        int first = firstReplica(filename, chunkIndex);
+        for (int r = 0; r < replicas; r++) {
+            servers[(first + r) % servers.length].delete(filename, chunkIndex);
+        }
+    }
+
+    private int firstReplica(String filename, int chunkIndex) {
+        return Math.floorMod(filename.hashCode() * 31 + chunkIndex, servers.length);
+    }
+}
+
+/**
+ * A chunkserver that keeps each chunk in its own file under root, named by
+ * the URL-encoded filename and the chunk index. Chunks are written to a
+ * temporary file and moved into place, so readers never see half a chunk.
+ */
+class LocalChunkServer {
+    private Path root;
+    private AtomicInteger load = new AtomicInteger();
+    private AtomicLong tmpId = new AtomicLong();
+
+    public LocalChunkServer(Path root) {
+        try {
+            this.root = Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * @return: the chunk content, or null if this server has no such chunk
+     */
+    public ByteBuffer read(String filename, int chunkIndex) {
+        load.incrementAndGet();
+        try (FileChannel channel = FileChannel.open(chunkPath(filename, chunkIndex), StandardOpenOption.READ)) {
+            ByteBuffer content = ByteBuffer.allocate((int) channel.size());
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+            }
+            content.flip();
+            return content;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            load.decrementAndGet();
+        }
+    }
+
+    /*
+     * Stores the bytes between content's position and limit, leaving content
+     * untouched.
+     */
+    public void write(String filename, int chunkIndex, ByteBuffer content) {
+        load.incrementAndGet();
+        Path target = chunkPath(filename, chunkIndex);
+        Path tmp = root.resolve(".tmp-" + tmpId.incrementAndGet());
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer src = content.duplicate();
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw new UncheckedIOException(e);
+        } finally {
+            load.decrementAndGet();
+        }
+    }
+
+    public void delete(String filename, int chunkIndex) {
+        load.incrementAndGet();
+        try {
+            Files.deleteIfExists(chunkPath(filename, chunkIndex));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            load.decrementAndGet();
+        }
+    }
+
+    /*
+     * @return: reads, writes and deletes in progress on this server
+     */
+    public int load() {
+        return load.get();
+    }
+
+    private Path chunkPath(String filename, int chunkIndex) {
+        return root.resolve(URLEncoder.encode(filename, StandardCharsets.UTF_8) + "." + chunkIndex);
+    }
+}
+
+/**
+ * A chunk cache keyed by (filename, chunkIndex) and bounded by the total weight
+ * of its values, usually their size in bytes. Which entry goes when it is full
+ * is up to the eviction policy. Safe for use from the chunk I/O threads.
+ */
+class ChunkCache<V> {
+    // rough per-entry bookkeeping cost, so that empty chunks still count
+    static final int ENTRY_OVERHEAD = 64;
+
+    private Map<ChunkKey, V> entries = new HashMap<>();
+    private Map<ChunkKey, Long> weights = new HashMap<>();
+    private long capacity;
+    private long weight;
+    private Weigher<V> weigher;
+    private EvictionPolicy policy;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /*
+     * @param capacity: the most total weight to hold
+     * @param weigher: the weight of a value, e.g. its size in bytes
+     * @param policy: picks entries to evict
+     */
+    public ChunkCache(long capacity, Weigher<V> weigher, EvictionPolicy policy) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.policy = policy;
+    }
+
+    /*
+     * Weighs a String chunk by its UTF-16 size.
+     */
+    public static long stringWeight(String content) {
+        return 2L * content.length();
+    }
+
+    public synchronized V get(String filename, int index) {
+        ChunkKey key = new ChunkKey(filename, index);
+        V value = entries.get(key);
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        policy.onAccess(key, value != null);
+        return value;
+    }
+
+    public synchronized void put(String filename, int index, V value) {
+        ChunkKey key = new ChunkKey(filename, index);
+        remove(key);
+        long w = weigher.weigh(value) + ENTRY_OVERHEAD;
+        if (w > capacity) {
+            return;
+        }
+        entries.put(key, value);
+        weights.put(key, w);
+        weight += w;
+        policy.onInsert(key, w);
+        while (weight > capacity) {
+            remove(policy.victim());
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(String filename, int index) {
+        remove(new ChunkKey(filename, index));
+    }
+
+    private void remove(ChunkKey key) {
+        Long w = weights.remove(key);
+        if (w != null) {
+            entries.remove(key);
+            weight -= w;
+            policy.onRemove(key);
+        }
+    }
+
+    /*
+     * @return: the fraction of lookups that were hits, 0 before any lookup
+     */
+    public synchronized double hitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+}
+
+class ChunkKey {
+    final String filename;
+    final int index;
+
+    ChunkKey(String filename, int index) {
+        this.filename = filename;
+        this.index = index;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ChunkKey)) {
+            return false;
+        }
+        ChunkKey other = (ChunkKey) o;
+        return index == other.index && filename.equals(other.filename);
+    }
+
+    public int hashCode() {
+        return filename.hashCode() * 31 + index;
+    }
+}
+
+/**
+ * Decides which cache entry to evict. The cache reports every lookup, insert
+ * and removal, and calls victim() while it is over capacity.
+ */
+interface EvictionPolicy {
+    void onAccess(ChunkKey key, boolean hit);
+
+    void onInsert(ChunkKey key, long weight);
+
+    void onRemove(ChunkKey key);
+
+    ChunkKey victim();
+}
+
+/**
+ * Evicts the least recently used entry.
+ */
+class LruPolicy implements EvictionPolicy {
+    private LinkedHashMap<ChunkKey, Boolean> order = new LinkedHashMap<>(16, 0.75f, true);
+
+    public void onAccess(ChunkKey key, boolean hit) {
+        if (hit) {
+            order.get(key);
+        }
+    }
+
+    public void onInsert(ChunkKey key, long weight) {
+        order.put(key, Boolean.TRUE);
+    }
+
+    public void onRemove(ChunkKey key) {
+        order.remove(key);
+    }
+
+    public ChunkKey victim() {
+        return order.keySet().iterator().next();
+    }
+}
+
+/**
+ * W-TinyLFU: new entries land in a small LRU window (1% of capacity). Once the
+ * window overflows into a full main LRU, its oldest entry only gets into main
+ * if it has been asked for more often than main's oldest, going by a
+ * count-min sketch of recent lookups, misses included. One-off scans pass
+ * through the window without flushing the hot set. Main is a single LRU here
+ * rather than the usual probation/protected pair.
+ */
+class TinyLfuPolicy implements EvictionPolicy {
+    private LinkedHashMap<ChunkKey, Long> window = new LinkedHashMap<>(16, 0.75f, true);
+    private LinkedHashMap<ChunkKey, Long> main = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long mainWeight;
+    private long windowMax;
+    private long mainMax;
+    private FrequencySketch sketch;
+
+    /*
+     * @param capacity: the cache capacity, in the cache's weight units
+     * @param expectedEntries: roughly how many entries fit, to size the sketch
+     */
+    public TinyLfuPolicy(long capacity, int expectedEntries) {
+        this.windowMax = Math.max(1, capacity / 100);
+        this.mainMax = capacity - windowMax;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    public void onAccess(ChunkKey key, boolean hit) {
+        sketch.increment(key.hashCode());
+        if (hit && window.get(key) == null) {
+            main.get(key);
+        }
+    }
+
+    public void onInsert(ChunkKey key, long weight) {
+        window.put(key, weight);
+        windowWeight += weight;
+        // while main has room, window overflow moves in unconditionally
+        while (windowWeight > windowMax && window.size() > 1) {
+            Map.Entry<ChunkKey, Long> eldest = window.entrySet().iterator().next();
+            if (mainWeight + eldest.getValue() > mainMax) {
+                break;
+            }
+            promote(eldest.getKey());
+        }
+    }
+
+    public void onRemove(ChunkKey key) {
+        Long w = window.remove(key);
+        if (w != null) {
+            windowWeight -= w;
+        } else if ((w = main.remove(key)) != null) {
+            mainWeight -= w;
+        }
+    }
+
+    public ChunkKey victim() {
+        if (main.isEmpty()) {
+            return window.keySet().iterator().next();
+        }
+        ChunkKey victim = main.keySet().iterator().next();
+        if (windowWeight <= windowMax || window.isEmpty()) {
+            return victim;
+        }
+        ChunkKey candidate = window.keySet().iterator().next();
+        if (sketch.frequency(candidate.hashCode()) > sketch.frequency(victim.hashCode())) {
+            promote(candidate);
+            return victim;
+        }
+        return candidate;
+    }
+
+    private void promote(ChunkKey key) {
+        long w = window.remove(key);
+        windowWeight -= w;
+        main.put(key, w);
+        mainWeight += w;
+    }
+}
+
+/**
+ * Count-min sketch of 4-bit counters, 4 rows. All counters are halved every
+ * 10 * width increments so that old popularity fades.
+ */
+class FrequencySketch {
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L};
+
+    private byte[][] rows;
+    private int mask;
+    private int additions;
+    private int sampleSize;
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(16, expectedEntries) * 2 - 1);
+        rows = new byte[SEEDS.length][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    void increment(int hash) {
+        for (int i = 0; i < rows.length; i++) {
+            int slot = slot(hash, i);
+            if (rows[i][slot] < 15) {
+                rows[i][slot]++;
+            }
+        }
+        if (++additions == sampleSize) {
+            for (byte[] row : rows) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+
+    int frequency(int hash) {
+        int min = 15;
+        for (int i = 0; i < rows.length; i++) {
+            min = Math.min(min, rows[i][slot(hash, i)]);
+        }
+        return min;
+    }
+
+    private int slot(int hash, int row) {
+        return (int) ((hash * SEEDS[row]) >>> 32) & mask;
+    }
+}
+
+class BaseGFSClient {
+    private Map<String, String> chunk_list;
+
+    public BaseGFSClient() {
+    }
+
+    public String readChunk(String filename, int chunkIndex) {
+        // Read a chunk from GFS
+        return "";
+    }
+
+    public void writeChunk(String filename, int chunkIndex,
+                           String content) {
+        // Write a chunk to GFS
+    }
+
+    /*
+     * Reads a chunk as bytes. By default this goes through readChunk with
+     * each char standing for one byte, which round-trips any byte values.
+     */
+    public ByteBuffer readChunkBytes(String filename, int chunkIndex) {
+        String content = readChunk(filename, chunkIndex);
+        if (content == null) {
+            return null;
+        }
+        return ByteBuffer.wrap(content.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /*
+     * Writes the bytes between content's position and limit as a chunk,
+     * without moving content's position.
+     */
+    public void writeChunkBytes(String filename, int chunkIndex,
+                                ByteBuffer content) {
+        writeChunk(filename, chunkIndex, StandardCharsets.ISO_8859_1.decode(content.duplicate()).toString());
+    }
+
+    /*
+     * Deletes a chunk that is no longer referred to. Servers that cannot
+     * delete may ignore it.
+     */
+    public void deleteChunk(String filename, int chunkIndex) {
     }
 }